@@ -0,0 +1,39 @@
+package fr.i360matt.fastmongo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is the report of a bulk operation: the counters of the server and the elements which failed.
+ * A failure doesn't stop the operation, the other elements are still written.
+ *
+ * @author 360matt
+ */
+public final class BulkResult {
+
+    public int matched;
+    public int modified;
+    public int upserted;
+    public final Map<String, String> failures = new LinkedHashMap<>();
+    // id -> error message
+
+    /**
+     * @return true if all the elements were written
+     */
+    public boolean isSuccess () {
+        return failures.isEmpty();
+    }
+
+    final synchronized void add (final BulkResult other) {
+        this.matched += other.matched;
+        this.modified += other.modified;
+        this.upserted += other.upserted;
+        this.failures.putAll(other.failures);
+    }
+
+    @Override
+    public String toString () {
+        return "BulkResult{matched=" + matched + ", modified=" + modified + ", upserted=" + upserted + ", failures=" + failures + "}";
+    }
+
+}
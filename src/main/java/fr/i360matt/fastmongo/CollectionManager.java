@@ -1,9 +1,51 @@
 package fr.i360matt.fastmongo;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
-import fr.i360matt.fastmongo.utils.ExpirableCache;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import fr.i360matt.fastmongo.annotations.CompoundIndex;
+import fr.i360matt.fastmongo.annotations.Indexed;
+import fr.i360matt.fastmongo.annotations.Unique;
+import fr.i360matt.fastmongo.codec.StructureCodecProvider;
+import fr.i360matt.fastmongo.utils.AsyncDispatcher;
+import fr.i360matt.fastmongo.utils.BoundedCache;
+import fr.i360matt.fastmongo.utils.FieldMapper;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * This class is used to manage a collection
@@ -11,8 +53,11 @@ import java.lang.reflect.Field;
  */
 public class CollectionManager {
 
-    protected static final ExpirableCache<Class<?>, Object> typeCache = new ExpirableCache<>(10_000);
-    protected static final ExpirableCache<String, CollectionManager> collectionCache = new ExpirableCache<>(3600_000);
+    protected static final BoundedCache<Class<?>, Object> typeCache = new BoundedCache<>(1_000, 10_000);
+    protected static final BoundedCache<String, CollectionManager> collectionCache = new BoundedCache<>(10_000, 3600_000);
+    private static final Set<String> indexedIds = ConcurrentHashMap.newKeySet();
+    private static final Map<String, Long> indexRetries = new ConcurrentHashMap<>();
+    private static final long INDEX_RETRY_DELAY = 60_000;
 
     /**
      * Allows to retrieve the manager of the collection in the cache
@@ -20,8 +65,9 @@ public class CollectionManager {
      * @return the manager concerned
      */
     public static CollectionManager getCollection (final String name) {
-        if (collectionCache.containsKey(name)) {
-            return collectionCache.get(name);
+        final CollectionManager candidate = collectionCache.get(name);
+        if (candidate != null) {
+            return candidate;
         } else {
             return new CollectionManager(name);
             // will be added to the cache at instantiation  [*]
@@ -31,11 +77,21 @@ public class CollectionManager {
 
     public final String name;
     public String fieldID = "_id";
+    private volatile String indexedFieldID;
+    private volatile long indexRetry;
     public final MongoCollection<Document> collection;
+    public final MongoCollection<RawBsonDocument> rawCollection;
+    // the same collection, read without decoding (see getRawBson)
 
     public Class<?> defaultTemplate;
     public Document defaultDocument;
     public boolean autoInsert;
+    public boolean lazyInsert;
+    public WriteBehind writeBehind;
+    public Counters counters;
+    public AsyncDispatcher dispatcher;
+    public Durability durability;
+    private final Map<Durability, MongoCollection<Document>> durables = new ConcurrentHashMap<>();
 
     public CollectionManager (final String name) {
         this.name = name;
@@ -45,11 +101,15 @@ public class CollectionManager {
             // if the collection is already in the cache
 
             this.collection = candidate.collection;
+            this.rawCollection = candidate.rawCollection;
         } else {
             if (!MongoIntegration.existCollect(name))
                 MongoIntegration.createCollect(name);
 
-            this.collection = MongoIntegration.getCollect(name);
+            final MongoCollection<Document> original = MongoIntegration.getCollect(name);
+            this.collection = original.withCodecRegistry(StructureCodecProvider.withStructures(original.getCodecRegistry()));
+            this.rawCollection = this.collection.withDocumentClass(RawBsonDocument.class);
+            // the structures are encoded and decoded directly, without intermediate Document
 
             // add to static cache: [*]
             collectionCache.put(name, this);
@@ -58,20 +118,22 @@ public class CollectionManager {
 
     /**
      * Allows to apply the chosen structure to all existing documents
+     * All the missing fields receive their default value, in a single pass on the collection
      * @param structure data structure class
      */
     public final void updateStructure (final Class<?> structure) {
         this.defaultTemplate = structure;
-        final Document doc = new Document();
-
-        for (final Field field : structure.getFields()) {
-            doc.append(field.getName(), typeCache.get(structure));
+        migrate(structure).run();
+    }
 
-            collection.updateMany(
-                    new Document(field.getName(), new Document("$exists", false)), // patern: [ 'field' don't exist ]
-                    new Document("$set", new Document(field.getName(), doc.get(field.getName())))
-            );
-        }
+    /**
+     * Allows to prepare the application of a structure to the existing documents, for the big collections:
+     * by ranges of documents, in parallel, with the progress and the possibility to resume
+     * @param structure data structure class
+     * @return the migration, to execute with run()
+     */
+    public final StructureMigration migrate (final Class<?> structure) {
+        return new StructureMigration(this, structure);
     }
 
     /**
@@ -80,21 +142,414 @@ public class CollectionManager {
      * @param structure the default structure
      */
     public final <D> void autoInsert (final Class<D> structure) {
+        autoInsert(structure, false);
+    }
+
+    /**
+     * Allows to define whether documents should be created when elements are instantiated
+     * In lazy mode, nothing is written at the instantiation: the default values are sent with the first mutation
+     * of the element (as $setOnInsert), so that a document which is only read costs no write.
+     * @param structure the default structure
+     * @param lazy if the insertion is deferred to the first mutation
+     */
+    public final <D> void autoInsert (final Class<D> structure, final boolean lazy) {
+        this.defaultDocument = getDefaultDocument(structure);
+        this.lazyInsert = lazy;
         this.autoInsert = true;
-        this.defaultDocument = new Document();
+    }
 
-        for (final Field field : structure.getFields()) {
-            this.defaultDocument.append(field.getName(), typeCache.get(structure));
+    /**
+     * Allows to get the default values of a structure in the form of a document (except the field of the ID)
+     * @param structure the chosen structure
+     * @return the document of the default values
+     */
+    public final Document getDefaultDocument (final Class<?> structure) {
+        final FieldMapper<?> mapper = FieldMapper.of(structure);
+        Object template = mapper.newInstance();
+        if (template == null)
+            template = getEmptyRaw(structure);
+
+        final Document res = new Document();
+        if (template != null) {
+            mapper.toDocument(template, res);
+            res.remove(this.fieldID);
+            // the ID is defined by the element, never by the defaults
         }
+        return res;
+    }
+
+    /**
+     * Allows to get the default values to apply to a document: a copy (the lists and nested documents too),
+     * without the field of the ID, the current one (setFieldID can be called after autoInsert)
+     * @return the default values, null if there are none
+     */
+    final Document getDefaults () {
+        final Document defaults = this.defaultDocument;
+        if (defaults == null)
+            return null;
+        final Document res = (Document) DocumentCache.copy(defaults);
+        res.remove(this.fieldID);
+        return res;
+    }
+
+    /**
+     * Allows to buffer the mutations of the elements (update, increment, push, pull ...) and to send them in batches.
+     * The mutations of the same document are merged, the buffer is sent when it is full, at each interval,
+     * with flush(), and when the JVM stops.
+     * @param maxPending the number of buffered updates which triggers a flush
+     * @param intervalMillis the maximum time between two flushes
+     */
+    public final void writeBehind (final int maxPending, final long intervalMillis) {
+        if (this.writeBehind != null)
+            this.writeBehind.close();
+        this.writeBehind = new WriteBehind(this, maxPending, intervalMillis);
+    }
+
+    /**
+     * Allows to accumulate the increments of the hot counters in memory (see getCounters()),
+     * they are sent as a single bulk $inc at each interval, with flush(), and when the JVM stops.
+     * @param intervalMillis the time between two flushes
+     */
+    public final void counters (final long intervalMillis) {
+        if (this.counters != null)
+            this.counters.close();
+        this.counters = new Counters(this, intervalMillis);
+    }
+
+    /**
+     * Allows to retrieve the counters of this collection, enabled with counters(interval)
+     * @return the counters, null if they are not enabled
+     */
+    public final Counters getCounters () {
+        return this.counters;
+    }
+
+    /**
+     * Allows to send immediately the buffered mutations of the write-behind mode, and the pending counters
+     */
+    public final void flush () {
+        flushWrites();
+        if (this.counters != null)
+            this.counters.flush();
+    }
+
+    /**
+     * Allows to make a write of some documents without leaving their previous version in the near cache.
+     * They are removed from the cache before the write, and again after it: a read which overlapped the write
+     * could have cached the previous document, each removal changes the stamp of the document (see DocumentCache.put)
+     * @param ids the ids of the written documents
+     * @param write the write
+     * @return the result of the write
+     */
+    final <T> T writeInvalidating (final Collection<String> ids, final Supplier<T> write) {
+        invalidate(ids);
+        try {
+            return write.get();
+        } finally {
+            invalidate(ids);
+        }
+    }
+
+    private void invalidate (final Collection<String> ids) {
+        final DocumentCache cache = getNearCache();
+        if (cache != null) {
+            for (final String id : ids)
+                cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Allows to send the buffered mutations of the write-behind mode before a read or a bulk write
+     * The counters keep their batch: their pending increments are merged in the documents read (see mergeCounters)
+     */
+    final void flushWrites () {
+        if (this.writeBehind != null)
+            this.writeBehind.flush();
+    }
+
+    /**
+     * Allows to add the pending increments of the counters to a document read from the DB
+     * @param doc the document, with the field of the identifier
+     * @return the document
+     */
+    final Document mergeCounters (final Document doc) {
+        if (this.counters == null || doc == null)
+            return doc;
+        final Object id = doc.get(this.fieldID);
+        return (id != null) ? this.counters.merge(id.toString(), doc) : doc;
+        // without its id (excluded by the projection), the document is returned as is
+    }
+
+    /**
+     * Allows to add the pending increments of the counters to a document read from the DB
+     * @param id the id of the document
+     * @param doc the document
+     * @return the document
+     */
+    final Document mergeCounters (final String id, final Document doc) {
+        return (this.counters != null && doc != null) ? this.counters.merge(id, doc) : doc;
+    }
+
+    /**
+     * Allows to choose the durability of the writes of this collection (elements, write-behind, counters, saveAll ...)
+     * Example: UNACKNOWLEDGED for the cosmetic stats, JOURNALED for the currency
+     * With UNACKNOWLEDGED, the reads don't feed the near cache: they could see a document before a mutation is applied.
+     * @param durability the durability mode, null for the write concern of the client
+     */
+    public final void setDurability (final Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Allows to retrieve the collection used by the writes
+     * @param override the durability of the operation, null for the durability of this collection
+     * @return the collection with the write concern of the durability
+     */
+    final MongoCollection<Document> getWriteCollection (final Durability override) {
+        final Durability res = (override != null) ? override : this.durability;
+        if (res == null)
+            return this.collection;
+        return durables.computeIfAbsent(res, mode -> this.collection.withWriteConcern(mode.writeConcern));
+        // one instance by mode, the driver doesn't need more
+    }
+
+    /**
+     * Allows to choose the executor of the asynchronous operations (...Async methods) of this collection
+     * @param executor the executor of the operations
+     * @param maxInFlight the maximum number of operations in flight, beyond that the caller waits
+     */
+    public final void setAsync (final Executor executor, final int maxInFlight) {
+        this.dispatcher = new AsyncDispatcher(executor, maxInFlight);
+    }
+
+    /**
+     * Allows to retrieve the dispatcher of the asynchronous operations
+     * @return the dispatcher of the collection, or the default dispatcher
+     */
+    public final AsyncDispatcher getDispatcher () {
+        final AsyncDispatcher res = this.dispatcher;
+        return (res != null) ? res : AsyncDispatcher.getDefault();
+    }
+
+    /**
+     * Allows to keep the documents read by the elements in a near cache, shared by all the managers of this collection.
+     * The mutations made through the elements invalidate the cached documents.
+     * @param maxSize the maximum number of documents, the least recently used are evicted
+     * @param expiryInMillis the lifetime of a document in the cache
+     */
+    public final void nearCache (final int maxSize, final long expiryInMillis) {
+        DocumentCache.enable(this.name, maxSize, expiryInMillis);
+    }
+
+    /**
+     * Allows to keep the documents read by the elements in a near cache stored outside the Java heap (encoded in BSON),
+     * for the large numbers of documents: the garbage collector doesn't see them, they are decoded at each hit.
+     * @param maxBytes the maximum off-heap memory, the oldest documents are evicted
+     * @param expiryInMillis the lifetime of a document in the cache
+     */
+    public final void offHeapCache (final long maxBytes, final long expiryInMillis) {
+        DocumentCache.enableOffHeap(this.name, maxBytes, expiryInMillis);
+    }
+
+    /**
+     * Allows to retrieve the near cache of this collection (hits, misses, evictions ...)
+     * @return the near cache, null if it is not enabled
+     */
+    public final DocumentCache getNearCache () {
+        return DocumentCache.of(this.name);
+    }
+
+    /**
+     * Allows to remember the ids which have no document (new or unknown players ...), shared by all the managers of this collection:
+     * their lookups (exist, reads of the elements) are answered without request.
+     * The writes made through the elements forget them, the documents created elsewhere are seen after the expiration.
+     * @param maxSize the maximum number of absent ids
+     * @param expiryInMillis the lifetime of an absent id
+     */
+    public final void negativeCache (final int maxSize, final long expiryInMillis) {
+        PresenceCache.enable(this.name, maxSize, expiryInMillis);
+    }
+
+    /**
+     * Allows to retrieve the negative cache of this collection (hits, misses, size)
+     * @return the negative cache, null if it is not enabled
+     */
+    public final PresenceCache getNegativeCache () {
+        return PresenceCache.of(this.name);
+    }
+
+    /**
+     * Allows to forget an absent id, after a write which can create its document
+     * @param id the id of the document
+     */
+    final void markPresent (final String id) {
+        final PresenceCache presence = getNegativeCache();
+        if (presence != null)
+            presence.markPresent(id);
     }
 
     /**
      * Allows to change the name of the field which serves as an identifier
      * Example: UUID, username, etc ...
+     * An unique index is created on this field at its first use (element, exist, remove, saveAll ...)
      * @param id the name of the field
      */
     public final void setFieldID (final String id) {
         this.fieldID = id;
+        this.indexRetry = 0;
+    }
+
+    /**
+     * Allows to create the unique index of the field of the identifier, once by collection and field
+     * Without this index, each operation of an element would scan the whole collection.
+     * If the creation fails (duplicate ids, missing privilege ...), it is tried again only after a minute.
+     */
+    final void ensureFieldIDIndex () {
+        final String id = this.fieldID;
+        if (id.equals(this.indexedFieldID) || "_id".equals(id))
+            return;
+        // without allocation once the index is known, the elements call it at each instantiation
+        final long now = System.currentTimeMillis();
+        if (now < this.indexRetry)
+            return;
+
+        final String key = this.name + "#" + id;
+        if (!indexedIds.contains(key)) {
+            final Long retry = indexRetries.get(key);
+            final boolean claimed = (retry == null)
+                    ? indexRetries.putIfAbsent(key, now + INDEX_RETRY_DELAY) == null
+                    : now >= retry && indexRetries.replace(key, retry, now + INDEX_RETRY_DELAY);
+            if (!claimed) {
+                this.indexRetry = (retry != null) ? retry : now + INDEX_RETRY_DELAY;
+                return;
+                // another operation is creating it, or it failed recently: the operations go on without waiting
+            }
+
+            try {
+                final List<IndexModel> missing = getMissingIndexes(Collections.singletonList(getFieldIDIndex()));
+                if (!missing.isEmpty() && createIndexes(missing).isEmpty()) {
+                    this.indexRetry = now + INDEX_RETRY_DELAY;
+                    return;
+                }
+            } catch (final MongoException e) {
+                e.printStackTrace();
+                this.indexRetry = now + INDEX_RETRY_DELAY;
+                return;
+            }
+            indexedIds.add(key);
+            indexRetries.remove(key);
+        }
+        this.indexedFieldID = id;
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    /**
+     * Allows to create the indexes declared in a structure (@Indexed, @Unique, @CompoundIndex),
+     * only the indexes which don't exist yet are created.
+     * The field of the identifier (if it is not _id) receives an unique index.
+     * @param structure data structure class
+     * @return the names of the created indexes
+     */
+    public final List<String> ensureIndexes (final Class<?> structure) {
+        final List<IndexModel> declared = new ArrayList<>();
+        if (!"_id".equals(this.fieldID))
+            declared.add(getFieldIDIndex());
+
+        for (final Field field : structure.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()))
+                continue;
+            final Indexed indexed = field.getAnnotation(Indexed.class);
+            final Unique unique = field.getAnnotation(Unique.class);
+            if (indexed == null && unique == null)
+                continue;
+
+            final IndexOptions options = new IndexOptions();
+            if (unique != null)
+                options.unique(true).sparse(unique.sparse());
+            if (indexed != null) {
+                if (indexed.sparse())
+                    options.sparse(true);
+                if (indexed.expireAfterSeconds() >= 0)
+                    options.expireAfter(indexed.expireAfterSeconds(), TimeUnit.SECONDS);
+            }
+
+            final boolean descending = indexed != null && indexed.descending();
+            declared.add(new IndexModel(
+                    (descending) ? Indexes.descending(field.getName()) : Indexes.ascending(field.getName()),
+                    options
+            ));
+        }
+
+        for (final CompoundIndex compound : structure.getAnnotationsByType(CompoundIndex.class)) {
+            final Document keys = new Document();
+            for (final String field : compound.value()) {
+                if (field.startsWith("-"))
+                    keys.append(field.substring(1), -1);
+                else
+                    keys.append(field, 1);
+            }
+            declared.add(new IndexModel(keys, new IndexOptions().unique(compound.unique()).sparse(compound.sparse())));
+        }
+        return ensureIndexes(declared);
+    }
+
+    private IndexModel getFieldIDIndex () {
+        return new IndexModel(Indexes.ascending(this.fieldID), new IndexOptions().unique(true));
+    }
+
+    private List<String> ensureIndexes (final List<IndexModel> declared) {
+        final List<IndexModel> missing = getMissingIndexes(declared);
+        if (missing.isEmpty())
+            return Collections.emptyList();
+        return createIndexes(missing);
+    }
+
+    private List<IndexModel> getMissingIndexes (final List<IndexModel> declared) {
+        final Set<String> existing = new HashSet<>();
+        for (final BsonDocument index : collection.listIndexes(BsonDocument.class))
+            existing.add(getIndexSignature(index.getDocument("key")));
+
+        final List<IndexModel> missing = new ArrayList<>();
+        for (final IndexModel model : declared) {
+            final BsonDocument keys = model.getKeys().toBsonDocument(Document.class, collection.getCodecRegistry());
+            if (existing.add(getIndexSignature(keys)))
+                missing.add(model);
+            // an index on the same keys is not replaced, even if its options are different
+        }
+        return missing;
+    }
+
+    private List<String> createIndexes (final List<IndexModel> missing) {
+        try {
+            return collection.createIndexes(missing);
+        } catch (final MongoException e) {
+            final List<String> res = new ArrayList<>();
+            for (final IndexModel model : missing) {
+                try {
+                    res.add(collection.createIndex(model.getKeys(), model.getOptions()));
+                } catch (final MongoException failure) {
+                    failure.printStackTrace();
+                    // ex: duplicate values for an unique index, the other indexes are still created
+                }
+            }
+            return res;
+        }
+    }
+
+    private static String getIndexSignature (final BsonDocument keys) {
+        final StringBuilder res = new StringBuilder();
+        for (final Map.Entry<String, BsonValue> entry : keys.entrySet()) {
+            final BsonValue value = entry.getValue();
+            res.append(entry.getKey()).append(':');
+            if (value.isNumber())
+                res.append((value.asNumber().doubleValue() < 0) ? -1 : 1);
+            else
+                res.append(value);
+            res.append(',');
+            // 1, 1.0 and 1L are the same direction
+        }
+        return res.toString();
     }
 
 
@@ -105,7 +560,8 @@ public class CollectionManager {
      * @return the default data of the structure (instance)
      */
     public final <D> D getEmptyRaw (final Class<D> structure) {
-        if (!typeCache.containsKey(structure)) {
+        final Object candidate = typeCache.get(structure);
+        if (candidate == null) {
             try {
                 final D res = structure.newInstance();
                 typeCache.put(structure, res);
@@ -114,7 +570,7 @@ public class CollectionManager {
                 return null;
             }
         }
-        return (D) typeCache.get(structure);
+        return (D) candidate;
     }
 
 
@@ -124,20 +580,15 @@ public class CollectionManager {
      * @return generated structure
      */
     public final <D> D getRawFromDocument (final Document doc, final Class<D> structure) {
-        try {
-            final D res = getEmptyRaw(structure);
-            if (doc != null) { // check de sécurité si le document existe.
-                for (final Field field : structure.getFields()) {
-                    if (doc.containsKey(field.getName()))
-                        field.set(res, doc.get(field.getName()));
-                    // importation des valeurs des fields du Raw vide
-                }
-            }
-            return res;
-        } catch (final IllegalAccessException e) {
-            e.printStackTrace();
-            return null;
-        }
+        final FieldMapper<D> mapper = FieldMapper.of(structure);
+        D res = mapper.newInstance();
+        if (res == null)
+            res = getEmptyRaw(structure);
+
+        if (doc != null && res != null) // check de sécurité si le document existe.
+            mapper.fromDocument(doc, res);
+            // importation des valeurs des fields du Raw vide
+        return res;
     }
 
     /**
@@ -149,13 +600,380 @@ public class CollectionManager {
         return new Element(id, this);
     }
 
+    /**
+     * Allows to retrieve several items at once
+     * With the auto-insertion (not lazy), the missing documents are created in a single bulk upsert
+     * @param ids the ids of the elements
+     * @return the items in question, in the same order
+     */
+    public final List<Element> getObjects (final Collection<String> ids) {
+        final List<Element> res = new ArrayList<>(ids.size());
+        final List<String> insertedIds = new ArrayList<>();
+        final List<WriteModel<Document>> inserts = new ArrayList<>();
+        final Set<String> seen = new HashSet<>();
+
+        for (final String id : ids) {
+            final boolean batched = this.writeBehind == null && this.autoInsert && !this.lazyInsert && this.defaultDocument != null;
+            res.add(new Element(id, this, !batched));
+
+            if (batched && !Element.known.containsKey(this.name + "#" + id) && seen.add(id)) {
+                insertedIds.add(id);
+                inserts.add(new UpdateOneModel<>(
+                        new Document(this.fieldID, id),
+                        new Document("$setOnInsert", getDefaults()),
+                        Element.UPSERT
+                ));
+            }
+        }
+
+        if (!inserts.isEmpty()) {
+            final boolean[] failed = new boolean[inserts.size()];
+            try {
+                getWriteCollection(null).bulkWrite(inserts, new BulkWriteOptions().ordered(false));
+            } catch (final MongoBulkWriteException e) {
+                e.printStackTrace();
+                for (final BulkWriteError error : e.getWriteErrors())
+                    failed[error.getIndex()] = true;
+            } catch (final MongoException e) {
+                e.printStackTrace();
+                Arrays.fill(failed, true);
+            }
+
+            for (int ind = 0; ind < insertedIds.size(); ind++) {
+                markPresent(insertedIds.get(ind));
+                if (!failed[ind])
+                    Element.known.put(this.name + "#" + insertedIds.get(ind), true);
+                // only after the write: a failed id will be inserted by its next element
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Allows to retrieve the documents of several elements, with one request by chunk of 500 ids
+     * @param ids the ids of the elements
+     * @return the documents by id, in the order of the ids, without the elements which don't exist
+     */
+    public final Map<String, Document> getDocuments (final Collection<String> ids) {
+        return getDocuments(ids, 500, false);
+    }
+
+    /**
+     * Allows to retrieve the documents of several elements, with one request by chunk of ids
+     * @param ids the ids of the elements
+     * @param chunkSize the maximum number of ids by request
+     * @param parallel true to send the chunks at the same time (through the dispatcher)
+     * @return the documents by id, in the order of the ids, without the elements which don't exist
+     */
+    public final Map<String, Document> getDocuments (final Collection<String> ids, final int chunkSize, final boolean parallel) {
+        final DocumentCache cache = getNearCache();
+        if (cache == null) {
+            final Map<String, Document> res = multiGet(ids, chunkSize, parallel, chunk -> findDocuments(chunk, null));
+            for (final Map.Entry<String, Document> entry : res.entrySet())
+                mergeCounters(entry.getKey(), entry.getValue());
+            return res;
+        }
+
+        final Map<String, Document> cached = new LinkedHashMap<>();
+        final Map<String, Long> stamps = new LinkedHashMap<>();
+        for (final String id : new LinkedHashSet<>(ids)) {
+            final Document candidate = cache.get(id);
+            if (candidate != null)
+                cached.put(id, candidate);
+            else
+                stamps.put(id, cache.stamp(id));
+        }
+
+        final Map<String, Document> found = multiGet(new ArrayList<>(stamps.keySet()), chunkSize, parallel, chunk -> findDocuments(chunk, null));
+        if (this.durability != Durability.UNACKNOWLEDGED) {
+            for (final Map.Entry<String, Document> entry : found.entrySet())
+                cache.put(entry.getKey(), entry.getValue(), stamps.get(entry.getKey()));
+        }
+        // the read documents feed the near cache, like the reads of the elements
+
+        final Map<String, Document> res = new LinkedHashMap<>();
+        for (final String id : ids) {
+            final Document doc = cached.containsKey(id) ? cached.get(id) : found.get(id);
+            if (doc != null)
+                res.put(id, mergeCounters(id, doc));
+                // after the near cache: it keeps the values of the DB
+        }
+        return res;
+    }
+
+    /**
+     * Allows to retrieve several elements as structures, with one request by chunk of 500 ids
+     * @param ids the ids of the elements
+     * @param structure the chosen structure
+     * @param <D> the type of structure
+     * @return the structures by id, in the order of the ids, without the elements which don't exist
+     */
+    public final <D> Map<String, D> getRaws (final Collection<String> ids, final Class<D> structure) {
+        return getRaws(ids, structure, 500, false);
+    }
+
+    /**
+     * Allows to retrieve several elements as structures, with one request by chunk of ids
+     * Only the fields of the structure are downloaded
+     * @param ids the ids of the elements
+     * @param structure the chosen structure
+     * @param chunkSize the maximum number of ids by request
+     * @param parallel true to send the chunks at the same time (through the dispatcher)
+     * @param <D> the type of structure
+     * @return the structures by id, in the order of the ids, without the elements which don't exist
+     */
+    public final <D> Map<String, D> getRaws (final Collection<String> ids, final Class<D> structure, final int chunkSize, final boolean parallel) {
+        if (getNearCache() != null) {
+            final Map<String, D> res = new LinkedHashMap<>();
+            for (final Map.Entry<String, Document> entry : getDocuments(ids, chunkSize, parallel).entrySet())
+                res.put(entry.getKey(), getRawFromDocument(entry.getValue(), structure));
+            return res;
+        }
+
+        final FieldMapper<D> mapper = FieldMapper.of(structure);
+        final Bson projection = (mapper.indexOf(this.fieldID) >= 0 || "_id".equals(this.fieldID))
+                ? mapper.projection
+                : Projections.fields(mapper.projection, Projections.include(this.fieldID));
+        final Codec<D> codec = collection.getCodecRegistry().get(structure);
+
+        return multiGet(ids, chunkSize, parallel, chunk -> {
+            final Map<String, D> res = new HashMap<>();
+            for (final RawBsonDocument raw : collection.find(Filters.in(this.fieldID, chunk), RawBsonDocument.class).projection(projection))
+                res.put(getIdOf(raw), raw.decode(codec));
+            // the id is read in the raw BSON, the structure is decoded directly by the codec
+            return res;
+        });
+    }
+
+    private Map<String, Document> findDocuments (final List<String> chunk, final Bson projection) {
+        final Map<String, Document> res = new HashMap<>();
+        for (final Document doc : collection.find(Filters.in(this.fieldID, chunk)).projection(projection))
+            res.put(String.valueOf(doc.get(this.fieldID)), doc);
+        return res;
+    }
+
+    private String getIdOf (final RawBsonDocument raw) {
+        final BsonValue value = raw.get(this.fieldID);
+        if (value == null)
+            return null;
+        return (value.isString()) ? value.asString().getValue() : String.valueOf(value);
+    }
+
+    private <T> Map<String, T> multiGet (final Collection<String> ids, final int chunkSize, final boolean parallel,
+                                         final Function<List<String>, Map<String, T>> loader) {
+        ensureFieldIDIndex();
+        final PresenceCache presence = getNegativeCache();
+        final List<String> distinct = new ArrayList<>();
+        for (final String id : new LinkedHashSet<>(ids)) {
+            if (presence == null || !presence.isAbsent(id))
+                distinct.add(id);
+            // the ids known to be absent are not requested
+        }
+        if (distinct.isEmpty())
+            return new LinkedHashMap<>();
+        flushWrites();
+        // the buffered mutations must be visible
+        final long stamp = (presence != null) ? presence.stamp() : 0;
+
+        final int size = Math.max(1, chunkSize);
+        final Map<String, T> found = new HashMap<>();
+        if (parallel && distinct.size() > size) {
+            final List<CompletableFuture<Map<String, T>>> futures = new ArrayList<>();
+            for (int start = 0; start < distinct.size(); start += size) {
+                final List<String> chunk = distinct.subList(start, Math.min(distinct.size(), start + size));
+                futures.add(getDispatcher().supply(() -> loader.apply(chunk)));
+            }
+            for (final CompletableFuture<Map<String, T>> future : futures)
+                found.putAll(future.join());
+        } else {
+            for (int start = 0; start < distinct.size(); start += size)
+                found.putAll(loader.apply(distinct.subList(start, Math.min(distinct.size(), start + size))));
+        }
+
+        final Map<String, T> res = new LinkedHashMap<>();
+        for (final String id : distinct) {
+            final T value = found.get(id);
+            if (value != null)
+                res.put(id, value);
+            else if (presence != null)
+                presence.markAbsent(id, stamp);
+        }
+        return res;
+    }
+
+    /**
+     * Allows to save several structures, with one request by chunk of 1000 elements
+     * @param raws the structures by id
+     * @param <D> the type of structure
+     * @return the report, with the elements which failed
+     */
+    public final <D> BulkResult saveAll (final Map<String, D> raws) {
+        return saveAll(raws, 1000, false);
+    }
+
+    /**
+     * Allows to save several structures, with one request by chunk of 1000 elements
+     * @param raws the structures
+     * @param idExtractor the function which gives the id of a structure
+     * @param <D> the type of structure
+     * @return the report, with the elements which failed
+     * @throws IllegalArgumentException if two structures have the same id (nothing is saved)
+     */
+    public final <D> BulkResult saveAll (final Collection<D> raws, final Function<D, String> idExtractor) {
+        final Map<String, D> res = new LinkedHashMap<>();
+        for (final D raw : raws) {
+            final String id = idExtractor.apply(raw);
+            if (res.put(id, raw) != null)
+                throw new IllegalArgumentException("Two structures have the same id in saveAll: " + id);
+        }
+        return saveAll(res, 1000, false);
+    }
+
+    /**
+     * Allows to save several structures (like Element.setRaw), with unordered bulk writes
+     * A failed element doesn't stop the others, it is reported in the result
+     * @param raws the structures by id
+     * @param chunkSize the maximum number of elements by request
+     * @param parallel true to send the chunks at the same time (through the dispatcher)
+     * @param <D> the type of structure
+     * @return the report, with the elements which failed
+     */
+    public final <D> BulkResult saveAll (final Map<String, D> raws, final int chunkSize, final boolean parallel) {
+        final BulkResult res = new BulkResult();
+        if (raws.isEmpty())
+            return res;
+        ensureFieldIDIndex();
+        flushWrites();
+        // the buffered mutations are older, they must not overwrite these values
+
+        final List<String> ids = new ArrayList<>(raws.size());
+        final List<WriteModel<Document>> models = new ArrayList<>(raws.size());
+        for (final Map.Entry<String, D> entry : raws.entrySet()) {
+            ids.add(entry.getKey());
+            models.add(getSaveModel(entry.getKey(), entry.getValue()));
+        }
+
+        final int size = Math.max(1, chunkSize);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int start = 0; start < models.size(); start += size) {
+            final int end = Math.min(models.size(), start + size);
+            final List<String> chunkIds = ids.subList(start, end);
+            final List<WriteModel<Document>> chunk = models.subList(start, end);
+
+            if (parallel && models.size() > size)
+                futures.add(getDispatcher().run(() -> res.add(writeChunk(chunkIds, chunk))));
+            else
+                res.add(writeChunk(chunkIds, chunk));
+        }
+        for (final CompletableFuture<Void> future : futures)
+            future.join();
+        return res;
+    }
+
+    /**
+     * Allows to save several structures, asynchronously
+     * @param raws the structures by id
+     * @param <D> the type of structure
+     * @return the future report
+     */
+    public final <D> CompletableFuture<BulkResult> saveAllAsync (final Map<String, D> raws) {
+        return getDispatcher().supply(() -> saveAll(raws, 1000, false));
+    }
+
+    private UpdateOneModel<Document> getSaveModel (final String id, final Object raw) {
+        final FieldMapper<?> mapper = FieldMapper.of(raw.getClass());
+        final Document update = new Document("$set", (mapper.names.length > 0) ? raw : new Document(this.fieldID, id));
+        // the structure is encoded directly by the codec of the collection
+
+        if (this.autoInsert && this.lazyInsert && this.defaultDocument != null) {
+            final Document defaults = new Document();
+            for (final Map.Entry<String, Object> entry : getDefaults().entrySet()) {
+                if (!Element.conflicts(entry.getKey(), Arrays.asList(mapper.names)))
+                    defaults.put(entry.getKey(), entry.getValue());
+            }
+            if (!defaults.isEmpty())
+                update.append("$setOnInsert", defaults);
+        }
+        return new UpdateOneModel<>(new Document(this.fieldID, id), update, Element.UPSERT);
+    }
+
+    private BulkResult writeChunk (final List<String> ids, final List<WriteModel<Document>> models) {
+        final BulkResult res = new BulkResult();
+        final boolean[] failed = new boolean[ids.size()];
+        writeInvalidating(ids, () -> {
+            try {
+                count(res, getWriteCollection(null).bulkWrite(models, new BulkWriteOptions().ordered(false)));
+            } catch (final MongoBulkWriteException e) {
+                count(res, e.getWriteResult());
+                for (final BulkWriteError error : e.getWriteErrors()) {
+                    failed[error.getIndex()] = true;
+                    res.failures.put(ids.get(error.getIndex()), error.getMessage());
+                }
+                // unordered: the other elements of the chunk are written
+            } catch (final MongoException e) {
+                e.printStackTrace();
+                Arrays.fill(failed, true);
+                for (final String id : ids)
+                    res.failures.put(id, e.getMessage());
+            }
+            return null;
+        });
+
+        for (int ind = 0; ind < ids.size(); ind++) {
+            markPresent(ids.get(ind));
+            if (!failed[ind])
+                Element.known.put(this.name + "#" + ids.get(ind), true);
+        }
+        return res;
+    }
+
+    private static void count (final BulkResult res, final BulkWriteResult result) {
+        if (result.wasAcknowledged()) {
+            res.matched += result.getMatchedCount();
+            res.modified += result.getModifiedCount();
+            res.upserted += result.getUpserts().size();
+        }
+    }
+
     /**
      * Allows to check if an element exists
+     * With the negative cache, the ids known to be absent or written through the elements are answered without request
      * @param id identifiant de l'élément
      * @return l'état de l'existence
      */
     public final boolean exist (final String id) {
-        return collection.count(new Document(this.fieldID, id)) > 0;
+        ensureFieldIDIndex();
+        if (this.writeBehind != null)
+            this.writeBehind.flush(id);
+
+        final PresenceCache presence = getNegativeCache();
+        if (presence != null) {
+            if (presence.isAbsent(id))
+                return false;
+            if (Element.known.containsKey(this.name + "#" + id))
+                return true;
+        }
+
+        final long stamp = (presence != null) ? presence.stamp() : 0;
+        final boolean res = collection.find(new Document(this.fieldID, id))
+                .projection(getIdProjection())
+                .limit(1)
+                .first() != null;
+        // stops at the first document, and only its id is sent (covered by the index of the id)
+
+        if (presence != null) {
+            if (res)
+                Element.known.put(this.name + "#" + id, true);
+            else
+                presence.markAbsent(id, stamp);
+        }
+        return res;
+    }
+
+    private Bson getIdProjection () {
+        return ("_id".equals(this.fieldID))
+                ? Projections.include("_id")
+                : Projections.fields(Projections.include(this.fieldID), Projections.excludeId());
     }
 
     /**
@@ -163,12 +981,40 @@ public class CollectionManager {
      * @param id element id
      */
     public final void remove (final String id) {
-        collection.deleteOne(new Document(this.fieldID, id));
+        ensureFieldIDIndex();
+        if (this.writeBehind != null)
+            this.writeBehind.flush(id);
+
+        Element.known.remove(this.name + "#" + id);
+        final PresenceCache presence = getNegativeCache();
+        final long stamp = (presence != null) ? presence.stamp() : 0;
+        writeInvalidating(Collections.singletonList(id), () -> getWriteCollection(null).deleteOne(new Document(this.fieldID, id)));
+        if (presence != null)
+            presence.markAbsent(id, stamp);
     }
 
 
 
 
+    /**
+     * Allows to check if an element exists, asynchronously
+     * @param id element id
+     * @return the future state of the existence
+     */
+    public final CompletableFuture<Boolean> existAsync (final String id) {
+        return getDispatcher().supply(() -> exist(id));
+    }
+
+    /**
+     * Allows to delete the item, asynchronously
+     * @param id element id
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> removeAsync (final String id) {
+        return getDispatcher().run(() -> remove(id));
+    }
+
+
     // _________________________________________________________________________________________________________________
 
     /**
@@ -188,6 +1034,35 @@ public class CollectionManager {
         return new Sort(this);
     }
 
+    /**
+     * Allows to select the documents which match a condition, evaluated by the server
+     * The ranking rules, the limit and the projection can be added to the result
+     * @param filter the condition (ex: Filter.eq("region", "EU"))
+     * @return an instance of the ranking module
+     */
+    public final Sort where (final Bson filter) {
+        return new Sort(this).where(filter);
+    }
+
+    /**
+     * Allows to count the documents which match a condition
+     * @param filter the condition, null for all the documents
+     * @return the number of documents
+     */
+    public final long count (final Bson filter) {
+        flushWrites();
+        return (filter == null) ? collection.countDocuments() : collection.countDocuments(filter);
+    }
+
+    /**
+     * Allows to count the documents which match a condition, asynchronously
+     * @param filter the condition, null for all the documents
+     * @return the future number of documents
+     */
+    public final CompletableFuture<Long> countAsync (final Bson filter) {
+        return getDispatcher().supply(() -> count(filter));
+    }
+
 
 
 
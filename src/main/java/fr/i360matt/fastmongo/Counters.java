@@ -0,0 +1,445 @@
+package fr.i360matt.fastmongo;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class accumulates the increments of the hot counters (kills, coins ...) in memory, and sends them periodically.
+ *
+ * The increments of a field are summed in a LongAdder / DoubleAdder, so that the threads don't wait for each other.
+ * At each interval, the sums of each document are sent as a single $inc, all the documents in one unordered bulkWrite.
+ * The pending increments are sent on flush() and when the JVM stops. They are kept for the next flush if the write fails
+ * for a transient reason (network, election ...), the increments refused by the server (ex: field which is not a number) are dropped.
+ *
+ * @author 360matt
+ */
+public final class Counters {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "FastMongo-Counters");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<Counters> instances = ConcurrentHashMap.newKeySet();
+    private static final int DUPLICATE_KEY = 11000;
+    private static final String RETRYABLE_WRITE_ERROR = "RetryableWriteError";
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Counters::flushAll, "FastMongo-Counters-Shutdown"));
+    }
+
+    /**
+     * Allows to send the pending increments of all the collections
+     */
+    public static void flushAll () {
+        for (final Counters candidate : instances)
+            candidate.flush();
+    }
+
+
+    /**
+     * The counters of one document
+     */
+    private static final class Entry {
+        private final Map<String, LongAdder> longs = new ConcurrentHashMap<>();
+        private final Map<String, DoubleAdder> doubles = new ConcurrentHashMap<>();
+
+        /**
+         * Takes the current sums: exactly the taken value is subtracted, the concurrent increments stay for the next flush
+         */
+        private Document drain () {
+            final Document res = new Document();
+            for (final Map.Entry<String, LongAdder> counter : longs.entrySet()) {
+                final long value = counter.getValue().sum();
+                if (value != 0) {
+                    counter.getValue().add(-value);
+                    res.put(counter.getKey(), value);
+                }
+            }
+            for (final Map.Entry<String, DoubleAdder> counter : doubles.entrySet()) {
+                final double value = counter.getValue().sum();
+                if (value != 0) {
+                    counter.getValue().add(-value);
+                    final Object other = res.get(counter.getKey());
+                    res.put(counter.getKey(), (other != null) ? ((Number) other).longValue() + value : value);
+                }
+            }
+            return res;
+        }
+
+        private void restore (final Document values) {
+            for (final Map.Entry<String, Object> value : values.entrySet()) {
+                if (value.getValue() instanceof Long)
+                    longs.computeIfAbsent(value.getKey(), key -> new LongAdder()).add((Long) value.getValue());
+                else
+                    doubles.computeIfAbsent(value.getKey(), key -> new DoubleAdder()).add((Double) value.getValue());
+            }
+        }
+    }
+
+    private final CollectionManager manager;
+    public final long intervalMillis;
+
+    private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private List<Map.Entry<String, Entry>> retired = Collections.emptyList();
+    private final Object flushLock = new Object();
+    private final AtomicLong flushes = new AtomicLong();
+    // incremented at the start and at the end of each flush: odd while a flush is running
+    private final ScheduledFuture<?> task;
+
+    /**
+     * Allows to create the counters of a collection
+     * @param manager the manager of the collection
+     * @param intervalMillis the time between two flushes
+     */
+    public Counters (final CollectionManager manager, final long intervalMillis) {
+        this.manager = manager;
+        this.intervalMillis = intervalMillis;
+        this.task = scheduler.scheduleWithFixedDelay(this::scheduledFlush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        instances.add(this);
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    /**
+     * Allows to increment a counter
+     * @param id the id of the document
+     * @param field the field of the counter
+     * @param delta the value to add (negative to subtract)
+     */
+    public void increment (final String id, final String field, final long delta) {
+        pending.computeIfAbsent(id, key -> new Entry()).longs.computeIfAbsent(field, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Allows to increment a decimal counter
+     * @param id the id of the document
+     * @param field the field of the counter
+     * @param delta the value to add (negative to subtract)
+     */
+    public void increment (final String id, final String field, final double delta) {
+        pending.computeIfAbsent(id, key -> new Entry()).doubles.computeIfAbsent(field, key -> new DoubleAdder()).add(delta);
+    }
+
+    /**
+     * Allows to know the increments not yet sent
+     * @param id the id of the document
+     * @param field the field of the counter
+     * @return the sum of the pending increments
+     */
+    public Number getPending (final String id, final String field) {
+        final Entry entry = pending.get(id);
+        if (entry == null)
+            return 0L;
+        final LongAdder longs = entry.longs.get(field);
+        final DoubleAdder doubles = entry.doubles.get(field);
+        final long res = (longs != null) ? longs.sum() : 0;
+        return (doubles != null) ? (Number) (res + doubles.sum()) : (Number) res;
+    }
+
+    /**
+     * Allows to read a counter: the value in the DB plus the pending increments
+     * @param id the id of the document
+     * @param field the field of the counter
+     * @return the current value
+     */
+    public Number get (final String id, final String field) {
+        if (manager.writeBehind != null)
+            manager.writeBehind.flush(id);
+
+        Number persisted = null;
+        Number delta = null;
+        for (int attempt = 0; attempt < 3 && persisted == null; attempt++) {
+            final long generation = flushes.get();
+            if ((generation & 1) != 0) {
+                Thread.yield();
+                continue;
+                // a flush is running
+            }
+            final Number candidate = getPersisted(id, field);
+            delta = getPending(id, field);
+            if (flushes.get() == generation)
+                persisted = candidate;
+            // no flush between the two reads: an increment is counted once, without blocking the flushes
+        }
+        if (persisted == null) {
+            synchronized (flushLock) {
+                persisted = getPersisted(id, field);
+                delta = getPending(id, field);
+            }
+            // the flushes are too frequent: the reads are made between two of them
+        }
+
+        if (persisted instanceof Double || persisted instanceof Float || delta instanceof Double)
+            return persisted.doubleValue() + delta.doubleValue();
+        return persisted.longValue() + delta.longValue();
+    }
+
+    /**
+     * Allows to add the pending increments of a document to this document read from the DB,
+     * so that the reads (Sort, getDocuments ...) see the counters without sending them.
+     * An increment being sent by a flush during the read can be missing, use get() for an exact value.
+     * @param id the id of the document
+     * @param doc the document read from the DB, modified
+     * @return the document
+     */
+    Document merge (final String id, final Document doc) {
+        final Entry entry = pending.get(id);
+        if (entry == null)
+            return doc;
+        for (final Map.Entry<String, LongAdder> counter : entry.longs.entrySet()) {
+            final long delta = counter.getValue().sum();
+            if (delta != 0)
+                add(doc, counter.getKey(), delta);
+        }
+        for (final Map.Entry<String, DoubleAdder> counter : entry.doubles.entrySet()) {
+            final double delta = counter.getValue().sum();
+            if (delta != 0)
+                add(doc, counter.getKey(), delta);
+        }
+        return doc;
+    }
+
+    private static void add (final Document doc, final String field, final Number delta) {
+        final String[] parts = field.split("\\.");
+        Document target = doc;
+        for (int ind = 0; ind < parts.length - 1; ind++) {
+            final Object nested = target.get(parts[ind]);
+            if (nested != null && !(nested instanceof Document))
+                return;
+            if (nested == null)
+                target.put(parts[ind], new Document());
+            target = (Document) target.get(parts[ind]);
+        }
+        // like $inc: the missing documents are created
+
+        final String last = parts[parts.length - 1];
+        final Object stored = target.get(last);
+        if (stored != null && !(stored instanceof Number))
+            return;
+        final Number value = (stored != null) ? (Number) stored : 0;
+        if (value instanceof Double || value instanceof Float || delta instanceof Double) {
+            target.put(last, value.doubleValue() + delta.doubleValue());
+        } else {
+            final long res = value.longValue() + delta.longValue();
+            target.put(last, (value instanceof Long || res != (int) res) ? (Object) res : (Object) (int) res);
+            // an int32 field stays an int32, like with $inc
+        }
+    }
+
+    private Number getPersisted (final String id, final String field) {
+        final Document doc = manager.collection.find(new Document(manager.fieldID, id))
+                .projection(Projections.include(field))
+                .first();
+
+        Object stored = doc;
+        for (final String part : field.split("\\.")) {
+            stored = (stored instanceof Document) ? ((Document) stored).get(part) : null;
+        }
+        return (stored instanceof Number) ? (Number) stored : 0L;
+    }
+
+    /**
+     * Sends the pending increments from the scheduler: an exception must not cancel the periodic task
+     */
+    private void scheduledFlush () {
+        try {
+            flush();
+        } catch (final RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Allows to send the pending increments
+     */
+    public void flush () {
+        synchronized (flushLock) {
+            flushes.incrementAndGet();
+            try {
+                flushLocked();
+            } finally {
+                flushes.incrementAndGet();
+            }
+        }
+    }
+
+    private void flushLocked () {
+        final Map<String, Document> values = new LinkedHashMap<>();
+        for (final Map.Entry<String, Entry> previous : retired)
+            drain(previous.getKey(), previous.getValue(), values);
+        // the increments made during the removal of an entry are sent at the next flush
+
+        final List<Map.Entry<String, Entry>> idle = new ArrayList<>();
+        for (final Map.Entry<String, Entry> entry : pending.entrySet()) {
+            if (!drain(entry.getKey(), entry.getValue(), values) && pending.remove(entry.getKey(), entry.getValue()))
+                idle.add(entry);
+            // the documents without increments are forgotten, the memory stays bounded
+        }
+        retired = idle;
+
+        if (!values.isEmpty())
+            write(values);
+    }
+
+    /**
+     * Allows to stop the counters, the pending increments are sent
+     */
+    public void close () {
+        task.cancel(false);
+        instances.remove(this);
+        flush();
+        flush();
+        // the second flush sends the increments of the entries removed by the first one
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    private static boolean drain (final String id, final Entry entry, final Map<String, Document> values) {
+        final Document res = entry.drain();
+        if (res.isEmpty())
+            return false;
+
+        final Document previous = values.get(id);
+        if (previous == null) {
+            values.put(id, res);
+        } else {
+            for (final Map.Entry<String, Object> value : res.entrySet()) {
+                final Object other = previous.get(value.getKey());
+                if (other == null)
+                    previous.put(value.getKey(), value.getValue());
+                else if (other instanceof Long && value.getValue() instanceof Long)
+                    previous.put(value.getKey(), (Long) other + (Long) value.getValue());
+                else
+                    previous.put(value.getKey(), ((Number) other).doubleValue() + ((Number) value.getValue()).doubleValue());
+            }
+        }
+        return true;
+    }
+
+    private void write (final Map<String, Document> values) {
+        final List<String> ids = new ArrayList<>(values.keySet());
+        final List<WriteModel<Document>> models = new ArrayList<>(ids.size());
+        final List<WriteModel<Document>> inserts = new ArrayList<>();
+        final List<String> inserted = new ArrayList<>();
+
+        for (final String id : ids) {
+            final Document inc = new Document();
+            for (final Map.Entry<String, Object> value : values.get(id).entrySet()) {
+                final Object delta = value.getValue();
+                inc.put(value.getKey(), (delta instanceof Long && (Long) delta == (int) (long) (Long) delta) ? (Object) (int) (long) (Long) delta : delta);
+                // a small delta stays an int32, so that an int32 field is not converted to int64
+            }
+            final Document update = new Document("$inc", inc);
+            boolean upsert = false;
+
+            final Document first = Element.getDefaultsFirst(manager, id, update);
+            if (first != null) {
+                inserts.add(new UpdateOneModel<>(new Document(manager.fieldID, id), new Document("$setOnInsert", first), Element.UPSERT));
+                inserted.add(id);
+                upsert = true;
+                // a counter with a default value: the increment applies on it, like in eager mode
+            } else if (manager.autoInsert && manager.lazyInsert && manager.defaultDocument != null) {
+                final Document defaults = new Document();
+                for (final Map.Entry<String, Object> entry : manager.getDefaults().entrySet()) {
+                    if (!Element.conflicts(entry.getKey(), inc.keySet()))
+                        defaults.put(entry.getKey(), entry.getValue());
+                }
+                if (!defaults.isEmpty())
+                    update.append("$setOnInsert", defaults);
+                upsert = true;
+                // lazy auto-insertion: the document is created with its default values
+            }
+            models.add(new UpdateOneModel<>(new Document(manager.fieldID, id), update, (upsert) ? Element.UPSERT : Element.UPDATE));
+        }
+
+        manager.writeInvalidating(ids, () -> {
+            send(ids, models, inserts, inserted, values);
+            return null;
+        });
+        if (manager.autoInsert && manager.lazyInsert && manager.defaultDocument != null) {
+            for (final String id : ids)
+                manager.markPresent(id);
+            // the documents were possibly created by the upserts
+        }
+    }
+
+    private void send (final List<String> ids, final List<WriteModel<Document>> models, final List<WriteModel<Document>> inserts,
+                       final List<String> inserted, final Map<String, Document> values) {
+
+        if (!inserts.isEmpty()) {
+            try {
+                manager.getWriteCollection(null).bulkWrite(inserts, new BulkWriteOptions().ordered(false));
+                for (final String id : inserted)
+                    Element.known.put(manager.name + "#" + id, true);
+                // the next increments of these documents are sent alone
+            } catch (final MongoException e) {
+                e.printStackTrace();
+                // the increments are still sent, they create the documents without these defaults
+            }
+        }
+        // before the increments: an unordered bulkWrite doesn't keep the order of the updates of a document
+
+        try {
+            manager.getWriteCollection(null).bulkWrite(models, new BulkWriteOptions().ordered(false));
+        } catch (final MongoBulkWriteException e) {
+            e.printStackTrace();
+            for (final BulkWriteError error : e.getWriteErrors()) {
+                if (error.getCode() == DUPLICATE_KEY)
+                    restore(ids.get(error.getIndex()), values);
+                // two upserts of the same new document at the same time: the next flush updates it
+            }
+            // the other errors are permanent (ex: $inc of a field which is not a number), these increments are dropped
+        } catch (final MongoException e) {
+            e.printStackTrace();
+            if (isTransient(e)) {
+                for (final String id : ids)
+                    restore(id, values);
+                // the increments are not lost, they will be sent at the next flush
+            }
+        }
+    }
+
+    /**
+     * Allows to know if a failed write can succeed later, its increments are then kept for the next flush
+     * @param e the error of the write
+     * @return true for the network and election errors
+     */
+    private static boolean isTransient (final MongoException e) {
+        return e instanceof MongoSocketException || e instanceof MongoTimeoutException || e instanceof MongoExecutionTimeoutException
+                || e instanceof MongoNotPrimaryException || e instanceof MongoNodeIsRecoveringException
+                || e.hasErrorLabel(RETRYABLE_WRITE_ERROR);
+        // not MongoWriteConcernException: the write was applied, sending it again would count it twice
+    }
+
+    private void restore (final String id, final Map<String, Document> values) {
+        pending.computeIfAbsent(id, key -> new Entry()).restore(values.get(id));
+    }
+
+}
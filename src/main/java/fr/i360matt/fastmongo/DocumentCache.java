@@ -0,0 +1,210 @@
+package fr.i360matt.fastmongo;
+
+import fr.i360matt.fastmongo.utils.BoundedCache;
+import fr.i360matt.fastmongo.utils.OffHeapCache;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is the near cache of the documents of a collection, keyed by id.
+ *
+ * The reads of the elements are served from this cache, the mutations made through the elements invalidate their entry.
+ * The modifications made outside this API (other servers, shell ...) are visible only after the expiration of the entry.
+ *
+ * The documents are kept on the heap, or encoded in BSON outside the heap (OffHeapCache) for the large caches.
+ *
+ * @author 360matt
+ */
+public final class DocumentCache {
+
+    private static final Map<String, DocumentCache> caches = new ConcurrentHashMap<>();
+    private static final DocumentCodec codec = new DocumentCodec();
+    private static final int STRIPES = 4096;
+
+    /**
+     * Allows to retrieve the near cache of a collection
+     * @param collection the name of the collection
+     * @return the cache, null if it is not enabled for this collection
+     */
+    public static DocumentCache of (final String collection) {
+        return caches.get(collection);
+    }
+
+    /**
+     * Allows to enable the near cache of a collection, the previous cache is replaced
+     * @param collection the name of the collection
+     * @param maxSize the maximum number of documents
+     * @param expiryInMillis the lifetime of a document in the cache
+     * @return the new cache
+     */
+    public static DocumentCache enable (final String collection, final int maxSize, final long expiryInMillis) {
+        final DocumentCache res = new DocumentCache(collection, maxSize, expiryInMillis);
+        caches.put(collection, res);
+        return res;
+    }
+
+    /**
+     * Allows to enable the near cache of a collection, outside the Java heap, the previous cache is replaced
+     * @param collection the name of the collection
+     * @param maxBytes the maximum off-heap memory used by the documents
+     * @param expiryInMillis the lifetime of a document in the cache
+     * @return the new cache
+     */
+    public static DocumentCache enableOffHeap (final String collection, final long maxBytes, final long expiryInMillis) {
+        final DocumentCache res = new DocumentCache(collection, new OffHeapCache(maxBytes, expiryInMillis));
+        caches.put(collection, res);
+        return res;
+    }
+
+    /**
+     * Allows to disable the near cache of a collection
+     * @param collection the name of the collection
+     */
+    public static void disable (final String collection) {
+        caches.remove(collection);
+    }
+
+
+    public final String collection;
+    private final BoundedCache<String, Document> documents;
+    private final OffHeapCache encoded;
+    // one of them, the other is null
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+    // by stripe of ids: a write only discards the reads of the documents of its stripe, not of the whole collection
+
+    private DocumentCache (final String collection, final int maxSize, final long expiryInMillis) {
+        this.collection = collection;
+        this.documents = new BoundedCache<>(maxSize, expiryInMillis);
+        this.encoded = null;
+    }
+
+    private DocumentCache (final String collection, final OffHeapCache encoded) {
+        this.collection = collection;
+        this.documents = null;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Allows to retrieve a document from the cache
+     * The document is a private copy (its lists and nested documents too), it can be modified freely
+     * @param id the id of the document
+     * @return the document, null if it is not in the cache
+     */
+    public Document get (final String id) {
+        if (documents != null) {
+            final Document res = documents.get(id);
+            return (res != null) ? (Document) copy(res) : null;
+        }
+
+        final byte[] bytes = encoded.get(id);
+        return (bytes != null) ? new RawBsonDocument(bytes).decode(codec) : null;
+        // decoded only on a hit
+    }
+
+    /**
+     * Allows to retrieve the current stamp of a document, to take before reading it from the DB
+     * @param id the id of the document
+     * @return the stamp
+     */
+    public long stamp (final String id) {
+        return invalidations.get(stripeOf(id));
+    }
+
+    /**
+     * Allows to add a document read from the DB,
+     * it is ignored if an invalidation of this document happened since the stamp (the document could be obsolete)
+     * @param id the id of the document
+     * @param document the document
+     * @param stamp the stamp of the document taken before the read
+     */
+    public void put (final String id, final Document document, final long stamp) {
+        if (document != null && invalidations.get(stripeOf(id)) == stamp) {
+            if (documents != null)
+                documents.put(id, (Document) copy(document));
+                // the caller keeps its document, the cache its own copy
+            else
+                encoded.put(id, encode(document));
+        }
+    }
+
+    /**
+     * Allows to remove a document from the cache, after a mutation
+     * @param id the id of the document
+     */
+    public void invalidate (final String id) {
+        invalidations.incrementAndGet(stripeOf(id));
+        if (documents != null)
+            documents.remove(id);
+        else
+            encoded.remove(id);
+    }
+
+    /**
+     * Allows to remove all the documents from the cache
+     */
+    public void clear () {
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            invalidations.incrementAndGet(stripe);
+        if (documents != null)
+            documents.clear();
+        else
+            encoded.clear();
+    }
+
+    /**
+     * Allows to copy a value with its lists and nested documents, so that the cached documents are never shared
+     * @param value the value
+     * @return the copy, or the value itself if it is immutable
+     */
+    static Object copy (final Object value) {
+        if (value instanceof Document) {
+            final Document res = new Document();
+            for (final Map.Entry<String, Object> entry : ((Document) value).entrySet())
+                res.put(entry.getKey(), copy(entry.getValue()));
+            return res;
+        }
+        if (value instanceof List) {
+            final List<Object> res = new ArrayList<>(((List<?>) value).size());
+            for (final Object element : (List<?>) value)
+                res.add(copy(element));
+            return res;
+        }
+        if (value instanceof Date)
+            return new Date(((Date) value).getTime());
+        return value;
+    }
+
+    private static int stripeOf (final String id) {
+        final int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static byte[] encode (final Document document) {
+        final BasicOutputBuffer buffer = new BasicOutputBuffer(256);
+        codec.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    public int size () { return (documents != null) ? documents.size() : encoded.size(); }
+    public long getHits () { return (documents != null) ? documents.getHits() : encoded.getHits(); }
+    public long getMisses () { return (documents != null) ? documents.getMisses() : encoded.getMisses(); }
+    public long getEvictions () { return (documents != null) ? documents.getEvictions() : encoded.getEvictions(); }
+
+    /**
+     * Allows to know the off-heap memory reserved by the cache
+     * @return the number of bytes, 0 for a cache on the heap
+     */
+    public long getOffHeapBytes () { return (encoded != null) ? encoded.getAllocatedBytes() : 0; }
+
+}
@@ -0,0 +1,28 @@
+package fr.i360matt.fastmongo;
+
+import com.mongodb.WriteConcern;
+
+/**
+ * The durability modes of the writes (write concern), from the fastest to the safest.
+ * Defined for a collection with CollectionManager.setDurability(), or for some mutations with Element.with().
+ *
+ * @author 360matt
+ */
+public enum Durability {
+
+    UNACKNOWLEDGED(WriteConcern.UNACKNOWLEDGED),
+    // fire-and-forget: the server doesn't answer, the errors are not reported (cosmetic stats ...)
+    W1(WriteConcern.W1),
+    // written by the primary
+    MAJORITY(WriteConcern.MAJORITY),
+    // written by the majority of the replica set, not lost on a failover
+    JOURNALED(WriteConcern.MAJORITY.withJournal(true));
+    // written by the majority and in their journal, not lost on a crash (currency ...)
+
+    public final WriteConcern writeConcern;
+
+    Durability (final WriteConcern writeConcern) {
+        this.writeConcern = writeConcern;
+    }
+
+}
@@ -1,12 +1,30 @@
 package fr.i360matt.fastmongo;
 
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
-import fr.i360matt.fastmongo.utils.ExpirableCacheList;
+import fr.i360matt.fastmongo.codec.StructureCodecProvider;
+import fr.i360matt.fastmongo.utils.BoundedCache;
+import fr.i360matt.fastmongo.utils.FieldMapper;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
 import org.bson.Document;
-import java.lang.reflect.Field;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class representing and managing an object from the collection
@@ -14,10 +32,123 @@ import java.util.Map;
  */
 public final class Element {
 
-    protected static final ExpirableCacheList<String> cache = new ExpirableCacheList<>(1_000);
+    protected static final BoundedCache<String, Boolean> known = new BoundedCache<>(100_000, 600_000);
+    // documents known to exist, keyed by "collection#id"
+
+    /**
+     * The mutations of this element which return the document in the same request (findOneAndUpdate),
+     * instead of a mutation followed by a read: one round trip, and no modification from elsewhere between them.
+     * @param <D> the type of the returned document (Document or a structure)
+     */
+    public final class Returning<D> {
+        private final Class<D> structure;
+        private final ReturnDocument state;
+        private final Bson projection;
+
+        private Returning (final Class<D> structure, final ReturnDocument state, final Bson projection) {
+            this.structure = structure;
+            this.state = state;
+            this.projection = projection;
+        }
+
+        /**
+         * Allows to return the document as it was before the mutation
+         * @return a new instance
+         */
+        public Returning<D> before () {
+            return new Returning<>(structure, ReturnDocument.BEFORE, projection);
+        }
+
+        /**
+         * Allows to return only some fields of the document
+         * @param fields the fields to return
+         * @return a new instance
+         */
+        public Returning<D> project (final String... fields) {
+            return setProjection(Projections.include(fields));
+        }
+
+        /**
+         * Allows to define the projection applied to the returned document
+         * @param projection the projection
+         * @return a new instance
+         */
+        public Returning<D> setProjection (final Bson projection) {
+            return new Returning<>(structure, state, projection);
+        }
+
+        public D update (final String key, final Object value) {
+            return apply("$set", new Document(key, value), false);
+        }
+
+        public D update (final Map<String, Object> values) {
+            return apply("$set", new Document(values), false);
+        }
+
+        public D increment (final String key, final Object value) {
+            return apply("$inc", new Document(key, value), false);
+        }
+
+        public D increment (final Map<String, Object> values) {
+            return apply("$inc", new Document(values), false);
+        }
+
+        public D push (final String key, final Object value) {
+            return apply("$push", new Document(key, value), true);
+        }
+
+        public D pull (final String key, final Object value) {
+            return apply("$pull", new Document(key, value), false);
+        }
+
+        /**
+         * Allows to send any update operator
+         * @param operator the update operator (ex: $min, $addToSet)
+         * @param fields the fields of the operator
+         * @param upsert if the document must be created when it doesn't exist
+         * @return the document, null if it doesn't exist
+         */
+        public D apply (final String operator, final Document fields, final boolean upsert) {
+            sync();
+            final Document update = new Document(operator, fields);
+            final Document first = getDefaultsFirst(manager, id, update);
+            final Document defaults = getPendingDefaults(fields.keySet());
+            if (first == null && defaults != null && !defaults.isEmpty())
+                update.append("$setOnInsert", defaults);
+
+            final D res = manager.writeInvalidating(ids(), () -> {
+                if (first != null)
+                    manager.getWriteCollection(getAcknowledged()).updateOne(filter, new Document("$setOnInsert", first), UPSERT);
+                    // the mutation applies on the default values: one more request, only for a document not known yet
+                return manager.getWriteCollection(getAcknowledged())
+                        .withDocumentClass(structure).findOneAndUpdate(
+                        filter,
+                        update,
+                        new FindOneAndUpdateOptions()
+                                .upsert(upsert || defaults != null)
+                                .returnDocument(state)
+                                .projection(projection)
+                );
+                // the document is returned by the server: the mutation is always acknowledged
+            });
+            if (upsert || defaults != null || res != null)
+                present();
+            return res;
+        }
+    }
+
+    static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    static final UpdateOptions UPDATE = new UpdateOptions();
+    static final BulkWriteOptions ORDERED = new BulkWriteOptions().ordered(true);
+    // shared: the driver only reads the options
 
     public final String id;
     public final CollectionManager manager;
+    private final String key;
+    private final BsonDocument filter;
+    // { fieldID: id }, built once for all the requests of this element (a plain BsonDocument: the driver writes it without conversion)
+    private final Durability durability;
+    // the durability of the mutations of this view, null for the durability of the collection
 
     /**
      * Allows to create an editing reference for a document (whether or not it is fictitious) so that the final document can be manipulated
@@ -25,13 +156,40 @@ public final class Element {
      * @param manager The manager of the collection where the document is supposed to be located (whether it exists or not)
      */
     public Element (final String id, final CollectionManager manager) {
+        this(id, manager, true);
+    }
+
+    Element (final String id, final CollectionManager manager, final boolean insert) {
         this.id = id;
         this.manager = manager;
+        this.key = manager.name + "#" + id;
+        this.filter = new BsonDocument(manager.fieldID, new BsonString(id));
+        this.durability = null;
+        manager.ensureFieldIDIndex();
 
-        if (!cache.contains(id)) {
-            cache.add(manager.name + "#" + id);
+        if (insert && !manager.lazyInsert && !known.containsKey(key))
             defineDefaultSchema();
-        }
+    }
+
+    private Element (final Element origin, final Durability durability) {
+        this.id = origin.id;
+        this.manager = origin.manager;
+        this.key = origin.key;
+        this.filter = origin.filter;
+        this.durability = durability;
+    }
+
+    /**
+     * Allows to make some mutations with another durability than the collection
+     * Example: element.with(Durability.JOURNALED).increment("coins", -50)
+     * The mutations of this view are not buffered by the write-behind mode, they are sent directly.
+     * With UNACKNOWLEDGED, a read right after a mutation can see (and put in the near cache) the previous document:
+     * the server may not have applied it yet. Don't combine it with the near cache for the documents read after writing.
+     * @param durability the durability of the mutations
+     * @return a view of this element
+     */
+    public final Element with (final Durability durability) {
+        return new Element(this, durability);
     }
 
 
@@ -41,11 +199,7 @@ public final class Element {
     protected final void defineDefaultSchema () {
         if (manager.autoInsert && manager.defaultDocument != null) {
             try {
-                manager.collection.updateOne(
-                        new Document(manager.fieldID, this.id),
-                        new Document("$setOnInsert", manager.defaultDocument),
-                        new UpdateOptions().upsert(true)
-                );
+                write("$setOnInsert", manager.getDefaults(), true);
                 // update document in DB
             } catch (final Exception e) {
                 e.printStackTrace();
@@ -53,6 +207,262 @@ public final class Element {
         }
     }
 
+    /**
+     * Allows to send an update operator for this document,
+     * it is buffered if the write-behind mode of the collection is enabled
+     * @param operator the update operator (ex: $set, $inc)
+     * @param fields the fields of the operator
+     * @param upsert if the document must be created when it doesn't exist
+     */
+    private void write (final String operator, final Document fields, final boolean upsert) {
+        write(new Document(operator, fields), upsert);
+    }
+
+    /**
+     * Allows to send several update operators for this document, in one update
+     * @param operators the update operators and their fields (ex: { $set: {...}, $unset: {...} })
+     * @param upsert if the document must be created when it doesn't exist
+     */
+    void write (final Document operators, final boolean upsert) {
+        final List<String> keys = new ArrayList<>();
+        for (final Object fields : operators.values())
+            keys.addAll(((Document) fields).keySet());
+        final Document first = getDefaultsFirst(manager, this.id, operators);
+        final Document defaults = getPendingDefaults(keys);
+
+        if (manager.writeBehind != null && this.durability == null) {
+            invalidate();
+            // the next read sends the buffer of this document before reading it
+            if (first != null)
+                manager.writeBehind.add(this.id, "$setOnInsert", first, true);
+                // the mutation is in conflict with it: the buffer sends it in a next update of the document
+            else if (defaults != null && !defaults.isEmpty())
+                manager.writeBehind.add(this.id, "$setOnInsert", defaults, true);
+            for (final Map.Entry<String, Object> operator : operators.entrySet())
+                manager.writeBehind.add(this.id, operator.getKey(), (Document) operator.getValue(), upsert || defaults != null);
+        } else {
+            sync();
+            // with another durability: the buffered mutations of this document are sent before, the order is kept
+            final Document update = new Document(operators);
+            if (first == null && defaults != null && !defaults.isEmpty())
+                update.append("$setOnInsert", defaults);
+            // lazy insertion: the default values are merged in the first mutation
+
+            manager.writeInvalidating(ids(), () -> {
+                if (first != null) {
+                    return manager.getWriteCollection(durability).bulkWrite(Arrays.asList(
+                            new UpdateOneModel<>(this.filter, new Document("$setOnInsert", first), UPSERT),
+                            new UpdateOneModel<>(this.filter, update, UPSERT)
+                    ), ORDERED);
+                    // one request, the mutation applies on the default values
+                }
+                return manager.getWriteCollection(durability).updateOne(
+                        this.filter,
+                        update,
+                        (upsert || defaults != null) ? UPSERT : UPDATE
+                );
+            });
+        }
+
+        if (upsert || defaults != null)
+            present();
+    }
+
+    /**
+     * Allows to get the default values to insert with a mutation, in lazy auto-insertion mode
+     * @param keys the fields modified by the mutation, excluded from the defaults
+     * @return the default values, null if the document is already known to exist (or no lazy insertion)
+     */
+    private Document getPendingDefaults (final Collection<String> keys) {
+        if (!manager.autoInsert || !manager.lazyInsert || manager.defaultDocument == null || known.containsKey(key))
+            return null;
+
+        final Document res = new Document();
+        for (final Map.Entry<String, Object> entry : manager.getDefaults().entrySet()) {
+            if (!conflicts(entry.getKey(), keys))
+                res.put(entry.getKey(), entry.getValue());
+        }
+        return res;
+    }
+
+    /**
+     * Allows to get the default values to insert before a mutation, in lazy auto-insertion mode:
+     * an operator which depends on the previous value (ex: $inc, $push) of a field with a default value
+     * can't be merged with the $setOnInsert of this field, it must apply on the default value like in eager mode
+     * @param manager the manager of the collection
+     * @param id the id of the document
+     * @param operators the update operators of the mutation
+     * @return all the default values, null if the mutation can be sent with getPendingDefaults()
+     */
+    static Document getDefaultsFirst (final CollectionManager manager, final String id, final Document operators) {
+        if (!manager.autoInsert || !manager.lazyInsert || manager.defaultDocument == null || known.containsKey(manager.name + "#" + id))
+            return null;
+
+        final List<String> keys = new ArrayList<>();
+        for (final Map.Entry<String, Object> operator : operators.entrySet()) {
+            if (!"$set".equals(operator.getKey()) && !"$unset".equals(operator.getKey()) && !"$setOnInsert".equals(operator.getKey()))
+                keys.addAll(((Document) operator.getValue()).keySet());
+            // $set and $unset replace the default value anyway
+        }
+        if (keys.isEmpty())
+            return null;
+
+        final Document defaults = manager.getDefaults();
+        for (final String field : defaults.keySet()) {
+            if (conflicts(field, keys))
+                return defaults;
+        }
+        return null;
+    }
+
+    static boolean conflicts (final String field, final Collection<String> keys) {
+        for (final String candidate : keys) {
+            if (candidate.equals(field) || candidate.startsWith(field + ".") || field.startsWith(candidate + "."))
+                return true;
+            // a field can't be modified by two operators of the same update
+        }
+        return false;
+    }
+
+    /**
+     * Allows to send the buffered mutations of this document before a direct read/write
+     */
+    private void sync () {
+        if (manager.writeBehind != null)
+            manager.writeBehind.flush(this.id);
+    }
+
+    /**
+     * Allows to get the durability of the mutations which need the answer of the server
+     * @return the durability of this element, W1 instead of UNACKNOWLEDGED
+     */
+    private Durability getAcknowledged () {
+        final Durability mode = (durability != null) ? durability : manager.durability;
+        return (mode == Durability.UNACKNOWLEDGED) ? Durability.W1 : mode;
+    }
+
+    /**
+     * Allows to record that the document exists (or will exist), after a write which can create it
+     */
+    private void present () {
+        known.put(key, true);
+        manager.markPresent(this.id);
+    }
+
+    /**
+     * Allows to know if the document is known to be absent, from the negative cache if it is enabled
+     * @return true if the document doesn't exist, false if it is unknown
+     */
+    private boolean isAbsent () {
+        final PresenceCache presence = manager.getNegativeCache();
+        return presence != null && presence.isAbsent(this.id);
+    }
+
+    /**
+     * Allows to retrieve the stamp of the negative cache, to take before a read
+     * @return the stamp, 0 if the negative cache is disabled
+     */
+    private long presenceStamp () {
+        final PresenceCache presence = manager.getNegativeCache();
+        return (presence != null) ? presence.stamp() : 0;
+    }
+
+    /**
+     * Allows to record in the negative cache a document not found
+     * @param res the result of the read
+     * @param stamp the stamp taken before the read
+     * @return the result of the read
+     */
+    private <T> T checked (final T res, final long stamp) {
+        if (res == null) {
+            final PresenceCache presence = manager.getNegativeCache();
+            if (presence != null)
+                presence.markAbsent(this.id, stamp);
+        }
+        return res;
+    }
+
+    /**
+     * Allows to get the id of this document, for CollectionManager.writeInvalidating
+     * @return a list with the id
+     */
+    private List<String> ids () {
+        return Collections.singletonList(this.id);
+    }
+
+    /**
+     * Allows to remove this document from the near cache, when a mutation is buffered
+     */
+    private void invalidate () {
+        final DocumentCache cache = manager.getNearCache();
+        if (cache != null)
+            cache.invalidate(this.id);
+    }
+
+    /**
+     * Allows to read some fields of the document, from the near cache if it is enabled
+     * @param key the field needed if the cache is disabled
+     * @return the document, null if it does not exist
+     */
+    private Document fetch (final String key) {
+        if (manager.getNearCache() != null)
+            return fetch();
+        return orDefaults(getDocument(Projections.include(key)));
+    }
+
+    /**
+     * Allows to read the document, from the near cache if it is enabled
+     * @return the document (a private copy from the cache), or its default values if it does not exist
+     */
+    private Document fetch () {
+        return orDefaults(find());
+    }
+
+    /**
+     * Allows to read the document, from the near cache if it is enabled, without the default values
+     * @return the document (a private copy from the cache), null if it does not exist
+     */
+    Document find () {
+        final DocumentCache cache = manager.getNearCache();
+        if (cache == null) {
+            if (isAbsent())
+                return null;
+            final long presence = presenceStamp();
+            sync();
+            return checked(manager.collection.find(this.filter).first(), presence);
+        }
+
+        final Document cached = cache.get(this.id);
+        if (cached != null)
+            return cached;
+        if (isAbsent())
+            return null;
+            // known to be absent: no request
+
+        final long stamp = cache.stamp(this.id);
+        final long presence = presenceStamp();
+        sync();
+        final Document res = manager.collection.find(this.filter).first();
+        if (manager.durability != Durability.UNACKNOWLEDGED)
+            cache.put(this.id, res, stamp);
+            // the unacknowledged writes may not be applied yet: the read document could be obsolete
+        return checked(res, presence);
+    }
+
+    /**
+     * In lazy auto-insertion mode, a document not inserted yet is represented by its default values
+     * @param doc the document read
+     * @return the document, or the default values if it does not exist
+     */
+    private Document orDefaults (final Document doc) {
+        if (doc != null || !manager.autoInsert || !manager.lazyInsert || manager.defaultDocument == null)
+            return doc;
+        final Document res = new Document(manager.fieldID, this.id);
+        res.putAll(manager.getDefaults());
+        // a copy: the lists of the defaults must not be modified through this document
+        return res;
+    }
+
     // _________________________________________________________________________________________________________________
 
 
@@ -61,11 +471,7 @@ public final class Element {
      * @param document the document in question
      */
     public final void setDocument (final Document document) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$set", document),
-                new UpdateOptions().upsert(true)
-        );
+        write("$set", document, true);
     }
 
     /**
@@ -73,7 +479,59 @@ public final class Element {
      * @return the document in question
      */
     public final Document getDocument () {
-        return manager.collection.find(new Document(manager.fieldID, id)).first();
+        return fetch();
+        // the near cache gives a private copy, the cached document stays intact
+    }
+
+
+    /**
+     * Allows to recover only some fields of the document
+     * @param fields the fields to download
+     * @return the partial document
+     */
+    public final Document getDocument (final String... fields) {
+        return getDocument(Projections.include(fields));
+    }
+
+    /**
+     * Allows to recover the document with a chosen projection
+     * Example: Projections.include("name", "coins"), Projections.exclude("history")
+     * @param projection the projection applied by the server
+     * @return the partial document
+     */
+    public final Document getDocument (final Bson projection) {
+        if (isAbsent())
+            return null;
+        final long presence = presenceStamp();
+        sync();
+        return checked(manager.collection.find(this.filter).projection(projection).first(), presence);
+    }
+
+
+    /**
+     * Allows to recover the document without decoding it: its fields are decoded only when they are read,
+     * and its BSON bytes can be forwarded as is (getByteBuffer())
+     * @return the raw document, null if it does not exist
+     */
+    public final RawBsonDocument getRawBson () {
+        if (isAbsent())
+            return null;
+        final long presence = presenceStamp();
+        sync();
+        return checked(manager.rawCollection.find(this.filter).first(), presence);
+    }
+
+    /**
+     * Allows to recover some fields of the document without decoding them
+     * @param projection the projection applied by the server
+     * @return the raw partial document, null if it does not exist
+     */
+    public final RawBsonDocument getRawBson (final Bson projection) {
+        if (isAbsent())
+            return null;
+        final long presence = presenceStamp();
+        sync();
+        return checked(manager.rawCollection.find(this.filter).projection(projection).first(), presence);
     }
 
 
@@ -86,17 +544,28 @@ public final class Element {
      */
     public final <D> void setRaw (final D raw) {
         try {
-            final Document values = new Document(manager.fieldID, this.id) {{
-                for (final Field field : raw.getClass().getFields())
-                    append(field.getName(), field.get(raw));
-                // We creating the Document object with reflection from raw
-            }};
-
-            manager.collection.updateOne(
-                    new Document(manager.fieldID, this.id),
-                    new Document("$set", values),
-                    new UpdateOptions().upsert(true)
-            );
+            final FieldMapper<?> mapper = FieldMapper.of(raw.getClass());
+            if (manager.writeBehind != null && this.durability == null) {
+                write("$set", mapper.toDocument(raw, new Document(manager.fieldID, this.id)), true);
+                return;
+                // the buffer needs a document to merge the fields
+            }
+
+            sync();
+            final Object values = (mapper.names.length > 0) ? raw : new Document(manager.fieldID, this.id);
+            // the structure is encoded directly by the codec of the collection ($set can't be empty)
+
+            final Document update = new Document("$set", values);
+            final Document defaults = getPendingDefaults(Arrays.asList(mapper.names));
+            if (defaults != null && !defaults.isEmpty())
+                update.append("$setOnInsert", defaults);
+
+            manager.writeInvalidating(ids(), () -> manager.getWriteCollection(durability).updateOne(
+                    this.filter,
+                    update,
+                    UPSERT
+            ));
+            present();
             // and we can now update
 
         } catch (final Exception e) {
@@ -110,21 +579,59 @@ public final class Element {
      * @return the class structure
      */
     public final <D> D getRaw (final Class<D> structure) {
-        final D res = manager.getEmptyRaw(structure);
-        final Document doc = manager.collection.find(new Document(manager.fieldID, id)).first();
+        if (manager.getNearCache() != null)
+            return manager.getRawFromDocument(fetch(), structure);
 
-        if (doc != null) { // if the document exist before,
-            try {
-                for (final Field field : structure.getFields()) {
-                    if (doc.containsKey(field.getName()))
-                        field.set(res, doc.get(field.getName()));
-                    // set fields values from document values
-                }
-            } catch (final IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        }
-        return res;
+        if (isAbsent())
+            return manager.getRawFromDocument(null, structure);
+        final long presence = presenceStamp();
+        sync();
+        final D res = checked(manager.collection.find(this.filter, structure)
+                .projection(FieldMapper.of(structure).projection)
+                .first(), presence);
+        // only the fields of the structure are downloaded
+        return (res != null) ? res : manager.getRawFromDocument(null, structure);
+        // decoded directly from the BSON, or the default values if the document does not exist
+    }
+
+
+    /**
+     * Allows to load the document in a session: it is modified freely, then commit() sends only the modified fields
+     * @return the session of the document
+     */
+    public final ElementSession<Document> session () {
+        return new ElementSession<>(this, Document.class);
+    }
+
+    /**
+     * Allows to load the structure in a session: it is modified freely, then commit() sends only the modified fields
+     * Example: session.get().coins += 10; session.commit(); // { $set: { coins: ... } }
+     * @param structure the chosen structure
+     * @return the session of the structure
+     */
+    public final <D> ElementSession<D> session (final Class<D> structure) {
+        return new ElementSession<>(this, structure);
+    }
+
+    /**
+     * Allows to make a mutation which returns the document after the mutation, in a single request
+     * Example: element.returning().increment("coins", -50)
+     * @return the mutations which return a Document
+     */
+    public final Returning<Document> returning () {
+        return new Returning<>(Document.class, ReturnDocument.AFTER, null);
+    }
+
+    /**
+     * Allows to make a mutation which returns the structure after the mutation, in a single request
+     * Only the fields of the structure are returned (the whole document for Document or RawBsonDocument)
+     * @param structure the chosen structure
+     * @return the mutations which return a structure
+     */
+    public final <D> Returning<D> returning (final Class<D> structure) {
+        final Bson projection = (StructureCodecProvider.isStructure(structure)) ? FieldMapper.of(structure).projection : null;
+        // Document, RawBsonDocument ...: the whole document
+        return new Returning<>(structure, ReturnDocument.AFTER, projection);
     }
 
 
@@ -139,16 +646,12 @@ public final class Element {
         if (values.length % 2 == 0) {
             // if the values are of even number ( so each key is linked to its value )
 
-            final Document toModify = new Document() {{
-                for (int ind = 0; ind < values.length; ind += 2)
-                    append(String.valueOf(values[ind]), values[ind + 1]);
-                    // we set the document from values given
-            }};
+            final Document toModify = new Document();
+            for (int ind = 0; ind < values.length; ind += 2)
+                toModify.append(String.valueOf(values[ind]), values[ind + 1]);
+                // we set the document from values given
 
-            manager.collection.updateOne(
-                    new Document(manager.fieldID, this.id),
-                    new Document("$set", toModify)
-            );
+            write("$set", toModify, false);
             // and update
         }
     }
@@ -161,10 +664,7 @@ public final class Element {
         final Document toModify = new Document(values);
         // we set the document from values given
 
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$set", toModify)
-        );
+        write("$set", toModify, false);
         // and update
     }
 
@@ -175,10 +675,7 @@ public final class Element {
      * @param value value of the field
      */
     public final void update (final String key, final Object value) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$set", new Document(key, value))
-        );
+        write("$set", new Document(key, value), false);
     }
 
     // _________________________________________________________________________________________________________________
@@ -193,10 +690,7 @@ public final class Element {
      * @param value increment value, can be negative to reverse for a decrement
      */
     public final void increment (final String key, final Object value) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$inc", new Document(key, value))
-        );
+        write("$inc", new Document(key, value), false);
     }
 
     /**
@@ -209,10 +703,7 @@ public final class Element {
         if (values.size() > 0) {
             final Document doc = new Document(values);
 
-            manager.collection.updateOne(
-                    new Document(manager.fieldID, this.id),
-                    new Document("$inc", doc)
-            );
+            write("$inc", doc, false);
         }
     }
 
@@ -230,15 +721,11 @@ public final class Element {
         if (values.length >= 2 && values.length%2 == 0) {
             // if the values is of an even number ( so key->value )
 
-            final Document toModify = new Document() {{
-                for (int ind=0; ind<values.length; ind+=2)
-                    append(String.valueOf(values[ind]), values[ind+1]);
-            }};
+            final Document toModify = new Document();
+            for (int ind = 0; ind < values.length; ind += 2)
+                toModify.append(String.valueOf(values[ind]), values[ind + 1]);
 
-            manager.collection.updateOne(
-                    new Document(manager.fieldID, this.id),
-                    new Document("$inc", toModify)
-            );
+            write("$inc", toModify, false);
         }
     }
 
@@ -250,11 +737,7 @@ public final class Element {
      * @param value the value to add
      */
     public final void push (final String key, final Object value) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$push", new Document(key, value)),
-                new UpdateOptions().upsert(true)
-        );
+        write("$push", new Document(key, value), true);
     }
 
     /**
@@ -263,11 +746,37 @@ public final class Element {
      * @param value the document to add
      */
     public final void push (final String key, final Document value) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$push", new Document(key, new Document(value))),
-                new UpdateOptions().upsert(true)
-        );
+        write("$push", new Document(key, new Document(value)), true);
+    }
+
+    /**
+     * Allows to add several elements to an array, and to keep only a part of the array (capped array)
+     * @param key the field representing an array in the DB
+     * @param values the values to add
+     * @param slice the maximum size of the array: negative to keep the last elements, positive to keep the first ones, 0 for no limit
+     */
+    public final void push (final String key, final Collection<?> values, final int slice) {
+        push(key, values, null, slice);
+    }
+
+    /**
+     * Allows to add several elements to an array, to sort the array and to keep only a part of it (ex: the 10 best scores)
+     * @param key the field representing an array in the DB
+     * @param values the values to add
+     * @param sort the order of the array: Sorts.descending("score") for documents, 1 or -1 for values, null to keep the order
+     * @param slice the maximum size of the array: negative to keep the last elements, positive to keep the first ones, 0 for no limit
+     */
+    public final void push (final String key, final Collection<?> values, final Object sort, final int slice) {
+        final Document modifiers = new Document("$each", new ArrayList<>(values));
+        if (sort instanceof Bson)
+            modifiers.append("$sort", ((Bson) sort).toBsonDocument(Document.class, manager.collection.getCodecRegistry()));
+        else if (sort != null)
+            modifiers.append("$sort", sort);
+        if (slice != 0)
+            modifiers.append("$slice", slice);
+        // the array is capped by the server, in the same request
+
+        write("$push", new Document(key, modifiers), true);
     }
 
     /**
@@ -276,10 +785,7 @@ public final class Element {
      * @param values the value to remove
      */
     public final void pull (final String key, final Object values) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$pull", new Document(key, values))
-        );
+        write("$pull", new Document(key, values), false);
     }
 
     /**
@@ -288,10 +794,7 @@ public final class Element {
      * @param value the document to remove
      */
     public final void pull (final String key, final Document value) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$pull", new Document(key, value))
-        );
+        write("$pull", new Document(key, value), false);
     }
 
     /**
@@ -299,10 +802,7 @@ public final class Element {
      * @param key the field representing an array in the DB
      */
     public final void pullAll (final String key) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$set", new Document(key, "[]"))
-        );
+        write("$set", new Document(key, new ArrayList<>()), false);
     }
 
 
@@ -312,7 +812,7 @@ public final class Element {
      * @return the requested list
      */
        public final List<?> getList (final String key) {
-          final Document resq = manager.collection.find(new Document(manager.fieldID, this.id)).first();
+          final Document resq = fetch(key);
           return (resq != null) ? (ArrayList<?>) resq.getList(key, Object.class) : new ArrayList<>();
       }
 
@@ -322,7 +822,7 @@ public final class Element {
      * @return the requested list of type String
      */
      public final List<String> getStringList (final String key) {
-          final Document resq = manager.collection.find(new Document(manager.fieldID, this.id)).first();
+          final Document resq = fetch(key);
           return (resq != null) ? resq.getList(key, String.class) : new ArrayList<>();
       }
 
@@ -332,24 +832,309 @@ public final class Element {
      * @return the requested list of type document
      */
       public final List<Document> getListAsDocument (final String key) {
-          final Document resq = manager.collection.find(new Document(manager.fieldID, this.id)).first();
+          final Document resq = fetch(key);
           return (resq != null) ? resq.getList(key, Document.class) : new ArrayList<>();
       }
 
     /**
-     * Allows to remove an element from a list by its index
+     * Allows to retrieve a part of a list, only this part is downloaded
+     * @param key the field representing an array in the DB
+     * @param skip the number of elements to skip (negative to start from the end)
+     * @param limit the maximum number of elements
+     * @return the requested part of the list
+     */
+    public final List<?> getList (final String key, final int skip, final int limit) {
+        return getSlice(key, Projections.slice(key, skip, limit));
+    }
+
+    /**
+     * Allows to retrieve the last elements of a list (ex: the last 20 matches), only them are downloaded
+     * @param key the field representing an array in the DB
+     * @param count the number of elements
+     * @return the last elements, in the order of the list
+     */
+    public final List<?> getLastOf (final String key, final int count) {
+        return getSlice(key, Projections.slice(key, -count));
+    }
+
+    /**
+     * Allows to retrieve a page of a list
+     * @param key the field representing an array in the DB
+     * @param page the number of the page, from 0
+     * @param size the number of elements by page
+     * @return the elements of the page
+     */
+    public final List<?> getListPage (final String key, final int page, final int size) {
+        return getList(key, page * size, size);
+    }
+
+    private List<?> getSlice (final String key, final Bson slice) {
+        sync();
+        final Document resq = manager.collection.find(this.filter)
+                .projection(Projections.fields(Projections.include(manager.fieldID), slice))
+                .first();
+        // the other fields are not downloaded
+
+        Object res = resq;
+        for (final String part : key.split("\\.")) {
+            res = (res instanceof Document) ? ((Document) res).get(part) : null;
+        }
+        return (res instanceof List) ? (List<?>) res : new ArrayList<>();
+    }
+
+    /**
+     * Allows to remove an element from a list by its index, in a single request
+     * The other elements (even null) are kept
      * @param key the field representing an array in the DB
      * @param index the index of the element concerned
      */
     public final void pullIndex (final String key, final int index) {
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$unset", new Document(key + "." + index, 1))
-        );
+        if (index < 0)
+            return;
+        sync();
+
+        final String path = "$" + key;
+        final Document removed = new Document("$concatArrays", Arrays.asList(
+                new Document("$slice", Arrays.asList(path, index)),
+                new Document("$slice", Arrays.asList(path, index + 1, new Document("$max", Arrays.asList(new Document("$size", path), 1))))
+        ));
+        // the elements before the index, then the elements after it
+
+        final MongoCollection<Document> target = manager.getWriteCollection(getAcknowledged());
+        // acknowledged: without answer, the error of an old server (and so the fallback) would never come
+        manager.writeInvalidating(ids(), () -> {
+            try {
+                return target.updateOne(
+                        this.filter,
+                        Collections.singletonList(new Document("$set", new Document(key, new Document("$cond", Arrays.asList(
+                                new Document("$isArray", path), removed, path
+                        )))))
+                );
+            } catch (final MongoCommandException e) {
+                // server without pipeline updates (< 4.2): the element is replaced by an unique marker, then the marker is pulled
+                final Document marker = new Document("_fastmongoRemoved", new ObjectId());
+                target.updateOne(
+                        new Document(manager.fieldID, this.id).append(key + "." + index, new Document("$exists", true)),
+                        new Document("$set", new Document(key + "." + index, marker))
+                );
+                return target.updateOne(
+                        this.filter,
+                        new Document("$pull", new Document(key, marker))
+                );
+            }
+        });
+    }
+
+    // _________________________________________________________________________________________________________________
+    // Asynchronous variants, executed by the dispatcher of the collection
+
+    /**
+     * Allows to define fields via a document, asynchronously
+     * @param document the document in question
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> setDocumentAsync (final Document document) {
+        return manager.getDispatcher().run(() -> setDocument(document));
+    }
+
+    /**
+     * Allows to recover the document in its original form, asynchronously
+     * @return the future document
+     */
+    public final CompletableFuture<Document> getDocumentAsync () {
+        return manager.getDispatcher().supply(this::getDocument);
+    }
+
+    /**
+     * Allows to update the document data, asynchronously
+     * @param raw the data to modify from a structure
+     * @return the future end of the operation
+     */
+    public final <D> CompletableFuture<Void> setRawAsync (final D raw) {
+        return manager.getDispatcher().run(() -> setRaw(raw));
+    }
+
+    /**
+     * Allows to retrieve the values of the document in the form of a chosen structure, asynchronously
+     * @param structure the chosen structure
+     * @return the future structure
+     */
+    public final <D> CompletableFuture<D> getRawAsync (final Class<D> structure) {
+        return manager.getDispatcher().supply(() -> getRaw(structure));
+    }
+
+    /**
+     * Allows to update several fields of a document thanks to the variadic formatting, asynchronously
+     * @param values The key/value pairs at update
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> updateAsync (final Object... values) {
+        return manager.getDispatcher().run(() -> update(values));
+    }
+
+    /**
+     * Allows to update several fields of a document using a map, asynchronously
+     * @param values The key/value pairs at update
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> updateAsync (final Map<String, Object> values) {
+        return manager.getDispatcher().run(() -> update(values));
+    }
+
+    /**
+     * Allows to update a field only of a document, asynchronously
+     * @param key name of the field
+     * @param value value of the field
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> updateAsync (final String key, final Object value) {
+        return manager.getDispatcher().run(() -> update(key, value));
+    }
 
-        manager.collection.updateOne(
-                new Document(manager.fieldID, this.id),
-                new Document("$pull", new Document(key, null))
-        );
+    /**
+     * Allows to increment [or decrement] a field, asynchronously
+     * @param key name of the field.
+     * @param value increment value, can be negative to reverse for a decrement
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> incrementAsync (final String key, final Object value) {
+        return manager.getDispatcher().run(() -> increment(key, value));
+    }
+
+    /**
+     * Allows to increment [or decrement] several fields in a request thanks to a Map, asynchronously
+     * @param values field / value pair [increment / decrement]
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> incrementAsync (final Map<String, Object> values) {
+        return manager.getDispatcher().run(() -> increment(values));
+    }
+
+    /**
+     * Allows to increment [or decrement] several fields in a query thanks to a variadic argument, asynchronously
+     * @param values field / value pair [increment / decrement]
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> incrementAsync (final Object... values) {
+        return manager.getDispatcher().run(() -> increment(values));
+    }
+
+    /**
+     * Allows you to add elements to an array, asynchronously
+     * @param key the field representing an array in the DB
+     * @param value the value to add
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pushAsync (final String key, final Object value) {
+        return manager.getDispatcher().run(() -> push(key, value));
+    }
+
+    /**
+     * Allows to add a document to an array, asynchronously
+     * @param key the field representing an array in the DB
+     * @param value the document to add
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pushAsync (final String key, final Document value) {
+        return manager.getDispatcher().run(() -> push(key, value));
+    }
+
+    /**
+     * Allows you to remove a selected element from an array, asynchronously
+     * @param key the field representing an array in the DB
+     * @param values the value to remove
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pullAsync (final String key, final Object values) {
+        return manager.getDispatcher().run(() -> pull(key, values));
+    }
+
+    /**
+     * Allows to remove a selected document from an array, asynchronously
+     * @param key the field representing an array in the DB
+     * @param value the document to remove
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pullAsync (final String key, final Document value) {
+        return manager.getDispatcher().run(() -> pull(key, value));
+    }
+
+    /**
+     * Allows you to remove all elements from an array, asynchronously
+     * @param key the field representing an array in the DB
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pullAllAsync (final String key) {
+        return manager.getDispatcher().run(() -> pullAll(key));
+    }
+
+    /**
+     * Allows to remove an element from a list by its index, asynchronously
+     * @param key the field representing an array in the DB
+     * @param index the index of the element concerned
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pullIndexAsync (final String key, final int index) {
+        return manager.getDispatcher().run(() -> pullIndex(key, index));
+    }
+
+    /**
+     * Allows you to retrieve a list from a field, asynchronously
+     * @param key the field representing an array in the DB
+     * @return the future list
+     */
+    public final CompletableFuture<List<?>> getListAsync (final String key) {
+        return manager.getDispatcher().supply(() -> getList(key));
+    }
+
+    /**
+     * Allows you to retrieve a list of String from a field, asynchronously
+     * @param key the field representing an array in the DB
+     * @return the future list of type String
+     */
+    public final CompletableFuture<List<String>> getStringListAsync (final String key) {
+        return manager.getDispatcher().supply(() -> getStringList(key));
+    }
+
+    /**
+     * Allows to retrieve documents from a list, asynchronously
+     * @param key the field representing an array in the DB
+     * @return the future list of type document
+     */
+    public final CompletableFuture<List<Document>> getListAsDocumentAsync (final String key) {
+        return manager.getDispatcher().supply(() -> getListAsDocument(key));
+    }
+
+    /**
+     * Allows to add several elements to a capped array, asynchronously
+     * @param key the field representing an array in the DB
+     * @param values the values to add
+     * @param sort the order of the array, null to keep the order
+     * @param slice the maximum size of the array (see push)
+     * @return the future end of the operation
+     */
+    public final CompletableFuture<Void> pushAsync (final String key, final Collection<?> values, final Object sort, final int slice) {
+        return manager.getDispatcher().run(() -> push(key, values, sort, slice));
+    }
+
+    /**
+     * Allows to retrieve a part of a list, asynchronously
+     * @param key the field representing an array in the DB
+     * @param skip the number of elements to skip (negative to start from the end)
+     * @param limit the maximum number of elements
+     * @return the future part of the list
+     */
+    public final CompletableFuture<List<?>> getListAsync (final String key, final int skip, final int limit) {
+        return manager.getDispatcher().supply(() -> getList(key, skip, limit));
+    }
+
+    /**
+     * Allows to retrieve the last elements of a list, asynchronously
+     * @param key the field representing an array in the DB
+     * @param count the number of elements
+     * @return the future last elements
+     */
+    public final CompletableFuture<List<?>> getLastOfAsync (final String key, final int count) {
+        return manager.getDispatcher().supply(() -> getLastOf(key, count));
     }
-}
\ No newline at end of file
+}
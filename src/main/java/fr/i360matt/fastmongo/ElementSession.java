@@ -0,0 +1,165 @@
+package fr.i360matt.fastmongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+
+import java.util.Map;
+
+/**
+ * This class is a unit of work on an element: the loaded structure (or document) is modified freely,
+ * then commit() sends a single update with only the modified fields ($set) and the removed ones ($unset).
+ *
+ * A snapshot of the BSON form of the value is kept at the loading and after each commit,
+ * the changes are found by comparing it with the BSON form of the current value.
+ * The nested documents are compared field by field, the arrays are replaced entirely when they change.
+ * The value is a private copy: the modifications are not visible to the other readers before the commit.
+ * If the document doesn't exist, the commit creates it with all the fields of the value (the default values included).
+ *
+ * @author 360matt
+ *
+ * @param <D> the type of the value (Document or a structure)
+ */
+public final class ElementSession<D> {
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    public final Element element;
+    private final Class<D> structure;
+    private D value;
+    private BsonDocument snapshot;
+    private boolean exists;
+
+    ElementSession (final Element element, final Class<D> structure) {
+        this.element = element;
+        this.structure = structure;
+        refresh();
+    }
+
+    /**
+     * Allows to retrieve the value to modify
+     * @return the structure or the document, tracked by this session
+     */
+    public D get () {
+        return value;
+    }
+
+    /**
+     * Allows to reload the value from the DB, the uncommitted modifications are lost
+     * @return The current instance
+     */
+    public ElementSession<D> refresh () {
+        final Document doc = element.find();
+        // a private copy, even from the near cache
+        this.exists = (doc != null);
+
+        if (structure == Document.class) {
+            Document res = doc;
+            if (res == null) {
+                res = new Document(element.manager.fieldID, element.id);
+                final Document defaults = element.manager.getDefaults();
+                if (defaults != null)
+                    res.putAll(defaults);
+                // a new document: its default values
+            }
+            this.value = structure.cast(res);
+        } else {
+            this.value = element.manager.getRawFromDocument(doc, structure);
+        }
+        this.snapshot = encode(value);
+        return this;
+    }
+
+    /**
+     * Allows to know the modifications not yet committed
+     * @return the update ({ $set: {...}, $unset: {...} }), empty if nothing was modified
+     */
+    public Document getChanges () {
+        return diff(getBase(), encode(value));
+    }
+
+    /**
+     * Allows to know if the value was modified since the loading or the last commit
+     * @return true if there are modifications to commit
+     */
+    public boolean isDirty () {
+        return !getChanges().isEmpty();
+    }
+
+    /**
+     * Allows to send the modifications, in a single update
+     * @return true if an update was sent, false if nothing was modified
+     */
+    public boolean commit () {
+        final BsonDocument current = encode(value);
+        final Document changes = diff(getBase(), current);
+        if (changes.isEmpty())
+            return false;
+
+        element.write(changes, true);
+        this.snapshot = current;
+        this.exists = true;
+        return true;
+    }
+
+    /**
+     * The value to compare with: the snapshot, or nothing if the document doesn't exist (all the fields are sent)
+     */
+    private BsonDocument getBase () {
+        return (exists) ? snapshot : new BsonDocument();
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    @SuppressWarnings("unchecked")
+    private BsonDocument encode (final D raw) {
+        final BsonDocument res = new BsonDocument();
+        if (raw != null) {
+            final Codec<D> codec = (Codec<D>) element.manager.collection.getCodecRegistry().get(raw.getClass());
+            codec.encode(new BsonDocumentWriter(res), raw, ENCODER_CONTEXT);
+        }
+        return res;
+    }
+
+    private Document diff (final BsonDocument before, final BsonDocument after) {
+        final Document set = new Document();
+        final Document unset = new Document();
+        diff("", before, after, set, unset);
+        set.remove(element.manager.fieldID);
+        unset.remove(element.manager.fieldID);
+        // the identifier is never modified
+
+        final Document res = new Document();
+        if (!set.isEmpty())
+            res.append("$set", set);
+        if (!unset.isEmpty())
+            res.append("$unset", unset);
+        return res;
+    }
+
+    private static void diff (final String prefix, final BsonDocument before, final BsonDocument after,
+                              final Document set, final Document unset) {
+        for (final Map.Entry<String, BsonValue> entry : after.entrySet()) {
+            final String path = prefix + entry.getKey();
+            final BsonValue previous = before.get(entry.getKey());
+
+            if (previous == null) {
+                set.put(path, entry.getValue());
+            } else if (!previous.equals(entry.getValue())) {
+                if (previous.isDocument() && entry.getValue().isDocument() && !entry.getValue().asDocument().isEmpty())
+                    diff(path + ".", previous.asDocument(), entry.getValue().asDocument(), set, unset);
+                    // only the modified fields of the nested document
+                else
+                    set.put(path, entry.getValue());
+            }
+        }
+        for (final String field : before.keySet()) {
+            if (!after.containsKey(field))
+                unset.put(prefix + field, "");
+        }
+    }
+
+}
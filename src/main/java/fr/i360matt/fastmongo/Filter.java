@@ -0,0 +1,157 @@
+package fr.i360matt.fastmongo;
+
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class is a condition on the documents, evaluated by the server (so with its indexes).
+ *
+ * The conditions are created with the static methods and combined with and(), or(), nor():
+ * <pre>
+ *     Filter.eq("region", "EU").and(Filter.gte("level", 10))
+ * </pre>
+ * The enum values are compared by their name, like they are stored.
+ *
+ * @author 360matt
+ */
+public final class Filter implements Bson {
+
+    private final Bson bson;
+
+    private Filter (final Bson bson) {
+        this.bson = bson;
+    }
+
+    /**
+     * Allows to use a condition written with the driver (com.mongodb.client.model.Filters)
+     * @param bson the condition
+     * @return the filter
+     */
+    public static Filter of (final Bson bson) {
+        return (bson instanceof Filter) ? (Filter) bson : new Filter(bson);
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    public static Filter eq (final String field, final Object value) {
+        return new Filter(Filters.eq(field, valueOf(value)));
+    }
+
+    public static Filter ne (final String field, final Object value) {
+        return new Filter(Filters.ne(field, valueOf(value)));
+    }
+
+    public static Filter gt (final String field, final Object value) {
+        return new Filter(Filters.gt(field, valueOf(value)));
+    }
+
+    public static Filter gte (final String field, final Object value) {
+        return new Filter(Filters.gte(field, valueOf(value)));
+    }
+
+    public static Filter lt (final String field, final Object value) {
+        return new Filter(Filters.lt(field, valueOf(value)));
+    }
+
+    public static Filter lte (final String field, final Object value) {
+        return new Filter(Filters.lte(field, valueOf(value)));
+    }
+
+    /**
+     * Allows to select a range of values, bounds included
+     * @param field the field
+     * @param min the minimum value
+     * @param max the maximum value
+     * @return the filter
+     */
+    public static Filter between (final String field, final Object min, final Object max) {
+        return new Filter(Filters.and(Filters.gte(field, valueOf(min)), Filters.lte(field, valueOf(max))));
+    }
+
+    public static Filter in (final String field, final Object... values) {
+        return in(field, Arrays.asList(values));
+    }
+
+    public static Filter in (final String field, final Collection<?> values) {
+        return new Filter(Filters.in(field, valuesOf(values)));
+    }
+
+    public static Filter nin (final String field, final Object... values) {
+        return nin(field, Arrays.asList(values));
+    }
+
+    public static Filter nin (final String field, final Collection<?> values) {
+        return new Filter(Filters.nin(field, valuesOf(values)));
+    }
+
+    public static Filter exists (final String field) {
+        return new Filter(Filters.exists(field));
+    }
+
+    public static Filter exists (final String field, final boolean exists) {
+        return new Filter(Filters.exists(field, exists));
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    public static Filter and (final Bson... filters) {
+        return new Filter(Filters.and(filters));
+    }
+
+    public static Filter or (final Bson... filters) {
+        return new Filter(Filters.or(filters));
+    }
+
+    public static Filter nor (final Bson... filters) {
+        return new Filter(Filters.nor(filters));
+    }
+
+    /**
+     * Allows to add a condition, both must be true
+     * @param other the other condition
+     * @return a new filter
+     */
+    public Filter and (final Bson other) {
+        return and(this, other);
+    }
+
+    /**
+     * Allows to add an alternative, one of them must be true
+     * @param other the other condition
+     * @return a new filter
+     */
+    public Filter or (final Bson other) {
+        return or(this, other);
+    }
+
+    @Override
+    public <TDocument> BsonDocument toBsonDocument (final Class<TDocument> documentClass, final CodecRegistry codecRegistry) {
+        return bson.toBsonDocument(documentClass, codecRegistry);
+    }
+
+    @Override
+    public String toString () {
+        return bson.toString();
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    private static Object valueOf (final Object value) {
+        return (value instanceof Enum) ? ((Enum<?>) value).name() : value;
+    }
+
+    private static List<Object> valuesOf (final Collection<?> values) {
+        final List<Object> res = new ArrayList<>(values.size());
+        for (final Object value : values)
+            res.add(valueOf(value));
+        return res;
+    }
+
+}
@@ -1,12 +1,19 @@
 package fr.i360matt.fastmongo;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCompressor;
 import com.mongodb.MongoCredential;
+import com.mongodb.ReadConcern;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import org.bson.Document;
-import java.util.Collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * This class is used to instantiate the connection to the database
@@ -24,6 +31,102 @@ public final class MongoIntegration {
         public String user;
         public String password;
         public String database;
+        public Tuning tuning;
+        // optional: the pool, timeouts, compression and concerns of the connection
+    }
+
+    /**
+     * The settings of the connection (pool, timeouts, wire compression, default concerns),
+     * the default values are those of the driver.
+     */
+    public static class Tuning {
+        public int maxPoolSize = 100;
+        public int minPoolSize = 0;
+        public int maxWaitTime = 120_000;
+        // the time a request waits for a connection of the pool (the wait queue), in ms
+        public int maxConnectionIdleTime = 0;
+        public int connectTimeout = 10_000;
+        public int socketTimeout = 0;
+        public int serverSelectionTimeout = 30_000;
+        public List<String> compressors = new ArrayList<>();
+        // "zstd", "snappy", "zlib": by order of preference, negotiated with the server
+        public ReadConcern readConcern;
+        public WriteConcern writeConcern;
+
+        /**
+         * Allows to retrieve the settings for the interactive requests (players, commands ...):
+         * warm pool, short timeouts so that a problem is reported quickly, no compression of the small messages
+         * @return a new instance
+         */
+        public static Tuning lowLatency () {
+            final Tuning res = new Tuning();
+            res.minPoolSize = 10;
+            res.maxWaitTime = 1_000;
+            res.connectTimeout = 2_000;
+            res.socketTimeout = 5_000;
+            res.serverSelectionTimeout = 2_000;
+            res.readConcern = ReadConcern.LOCAL;
+            res.writeConcern = WriteConcern.W1;
+            return res;
+        }
+
+        /**
+         * Allows to retrieve the settings for the large transfers (migrations, batches, exports ...):
+         * large pool, patient timeouts, and compression of the messages
+         * @return a new instance
+         */
+        public static Tuning bulkThroughput () {
+            final Tuning res = new Tuning();
+            res.maxPoolSize = 200;
+            res.minPoolSize = 20;
+            res.maxWaitTime = 30_000;
+            res.maxConnectionIdleTime = 300_000;
+            res.compressors = new ArrayList<>(Arrays.asList("zstd", "snappy", "zlib"));
+            res.writeConcern = WriteConcern.W1;
+            return res;
+        }
+
+        /**
+         * Allows to convert these settings into the options of the driver
+         * @return the builder of the options, to complete if needed
+         */
+        public MongoClientOptions.Builder toOptions () {
+            final MongoClientOptions.Builder res = MongoClientOptions.builder()
+                    .connectionsPerHost(maxPoolSize)
+                    .minConnectionsPerHost(minPoolSize)
+                    .maxWaitTime(maxWaitTime)
+                    .maxConnectionIdleTime(maxConnectionIdleTime)
+                    .connectTimeout(connectTimeout)
+                    .socketTimeout(socketTimeout)
+                    .serverSelectionTimeout(serverSelectionTimeout);
+
+            final List<MongoCompressor> list = new ArrayList<>();
+            for (final String name : compressors) {
+                if ("zstd".equalsIgnoreCase(name) && isPresent("com.github.luben.zstd.Zstd"))
+                    list.add(MongoCompressor.createZstdCompressor());
+                else if ("snappy".equalsIgnoreCase(name) && isPresent("org.xerial.snappy.Snappy"))
+                    list.add(MongoCompressor.createSnappyCompressor());
+                else if ("zlib".equalsIgnoreCase(name))
+                    list.add(MongoCompressor.createZlibCompressor());
+                // zstd and snappy need their library, they are skipped if it is not in the classpath
+            }
+            res.compressorList(list);
+
+            if (readConcern != null)
+                res.readConcern(readConcern);
+            if (writeConcern != null)
+                res.writeConcern(writeConcern);
+            return res;
+        }
+
+        private static boolean isPresent (final String className) {
+            try {
+                Class.forName(className, false, Tuning.class.getClassLoader());
+                return true;
+            } catch (final ClassNotFoundException e) {
+                return false;
+            }
+        }
     }
 
     /**
@@ -41,9 +144,11 @@ public final class MongoIntegration {
             disconnect();
         }
 
+        final Tuning tuning = (auth.tuning != null) ? auth.tuning : new Tuning();
         client = new MongoClient(
                 new ServerAddress(auth.host, auth.port),
-                Collections.singletonList(credential)
+                credential,
+                tuning.toOptions().build()
         );
 
         database = client.getDatabase(auth.database);
@@ -54,6 +159,8 @@ public final class MongoIntegration {
      * Allow to end a connection
      */
     public static void disconnect () {
+        WriteBehind.flushAll();
+        Counters.flushAll();
         client.close();
         isAvailable = false;
     }
@@ -0,0 +1,111 @@
+package fr.i360matt.fastmongo;
+
+import fr.i360matt.fastmongo.utils.BoundedCache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the negative cache of a collection: the ids known to have no document.
+ *
+ * The lookups of these ids (exist, reads of the elements) are answered without request,
+ * the writes made through the elements which can create the document remove their entry, remove() adds it.
+ * The documents created outside this API (other servers, shell ...) are visible only after the expiration of the entry.
+ *
+ * @author 360matt
+ */
+public final class PresenceCache {
+
+    private static final Map<String, PresenceCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Allows to retrieve the negative cache of a collection
+     * @param collection the name of the collection
+     * @return the cache, null if it is not enabled for this collection
+     */
+    public static PresenceCache of (final String collection) {
+        return caches.get(collection);
+    }
+
+    /**
+     * Allows to enable the negative cache of a collection, the previous cache is replaced
+     * @param collection the name of the collection
+     * @param maxSize the maximum number of absent ids
+     * @param expiryInMillis the lifetime of an absent id in the cache
+     * @return the new cache
+     */
+    public static PresenceCache enable (final String collection, final int maxSize, final long expiryInMillis) {
+        final PresenceCache res = new PresenceCache(collection, maxSize, expiryInMillis);
+        caches.put(collection, res);
+        return res;
+    }
+
+    /**
+     * Allows to disable the negative cache of a collection
+     * @param collection the name of the collection
+     */
+    public static void disable (final String collection) {
+        caches.remove(collection);
+    }
+
+
+    public final String collection;
+    private final BoundedCache<String, Boolean> absent;
+    private final AtomicLong creations = new AtomicLong();
+
+    private PresenceCache (final String collection, final int maxSize, final long expiryInMillis) {
+        this.collection = collection;
+        this.absent = new BoundedCache<>(maxSize, expiryInMillis);
+    }
+
+    /**
+     * Allows to know if an id is known to have no document
+     * @param id the id of the document
+     * @return true if the document doesn't exist, false if it is unknown
+     */
+    public boolean isAbsent (final String id) {
+        return absent.containsKey(id);
+    }
+
+    /**
+     * Allows to retrieve the current stamp, to take before looking for a document in the DB
+     * @return the stamp
+     */
+    public long stamp () {
+        return creations.get();
+    }
+
+    /**
+     * Allows to record that a document was not found,
+     * it is ignored if a document was possibly created since the stamp
+     * @param id the id of the document
+     * @param stamp the stamp taken before the lookup
+     */
+    public void markAbsent (final String id, final long stamp) {
+        if (creations.get() == stamp)
+            absent.put(id, true);
+    }
+
+    /**
+     * Allows to forget an absent id, after a write which can create the document
+     * @param id the id of the document
+     */
+    public void markPresent (final String id) {
+        creations.incrementAndGet();
+        absent.remove(id);
+    }
+
+    /**
+     * Allows to forget all the absent ids
+     */
+    public void clear () {
+        creations.incrementAndGet();
+        absent.clear();
+    }
+
+    public int size () { return absent.size(); }
+    public long getHits () { return absent.getHits(); }
+    public long getMisses () { return absent.getMisses(); }
+
+}
@@ -1,13 +1,38 @@
 package fr.i360matt.fastmongo;
 
 import com.mongodb.client.FindIterable;
-import com.mongodb.client.model.Sorts;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import fr.i360matt.fastmongo.codec.StructureCodecProvider;
+import fr.i360matt.fastmongo.utils.FieldMapper;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
 import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class is used to classify a Document in relation to one or more fields
@@ -18,9 +43,75 @@ public final class Sort implements Closeable {
         ASCENDING, DESCENDING
     }
 
-    private FindIterable<Document> iter;
+    /**
+     * An iteration on the results, the documents are downloaded by batches and decoded one by one
+     * The cursor is closed at the end of the results, by close(), or by the close() of the Sort
+     * @param <D> the type of the results
+     */
+    public final class Cursor<D> implements Iterator<D>, Closeable {
+        private final MongoCursor<D> cursor;
+        private boolean closed;
+
+        private Cursor (final MongoCursor<D> cursor) {
+            this.cursor = cursor;
+            cursors.add(this);
+        }
+
+        @Override
+        public boolean hasNext () {
+            if (closed)
+                return false;
+            if (cursor.hasNext())
+                return true;
+            close();
+            return false;
+        }
+
+        @Override
+        public D next () {
+            return cursor.next();
+        }
+
+        @Override
+        public void close () {
+            if (!closed) {
+                closed = true;
+                cursors.remove(this);
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * A page of a ranking, with the token of the next page
+     * @param <D> the type of the results
+     */
+    public static final class Page<D> {
+        public final List<D> items;
+        public final String next;
+
+        private Page (final List<D> items, final String next) {
+            this.items = items;
+            this.next = next;
+        }
+
+        /**
+         * @return true if there are more results after this page
+         */
+        public boolean hasNext () {
+            return next != null;
+        }
+    }
+
+    private final Document order = new Document();
     private final CollectionManager manager;
     private int limit;
+    private int batchSize;
+    private Bson projection;
+    private Bson filter;
+    private Bson hint;
+    private String hintName;
+    private final Set<Cursor<?>> cursors = ConcurrentHashMap.newKeySet();
 
     /**
      * Allows to create a classification that can be completed later
@@ -40,9 +131,82 @@ public final class Sort implements Closeable {
         return this;
     }
 
+    /**
+     * Allows to define the number of documents downloaded by each round trip of the cursors
+     * @param batchSize the number of documents by batch, 0 for the default of the server
+     * @return The current instance
+     */
+    public final Sort setBatchSize (final int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Allows to download only some fields of the documents
+     * By default, getRaws() downloads only the fields of the structure
+     * @param fields the fields to download
+     * @return The current instance
+     */
+    public final Sort project (final String... fields) {
+        return setProjection(Projections.include(fields));
+    }
+
+    /**
+     * Allows to define the projection applied by the server
+     * @param projection the projection (ex: Projections.exclude("history"))
+     * @return The current instance
+     */
+    public final Sort setProjection (final Bson projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    /**
+     * Allows to classify only the documents which match a condition, evaluated by the server
+     * The conditions are cumulated: each call adds a condition which must also be true
+     * @param filter the condition (ex: Filter.eq("region", "EU"))
+     * @return The current instance
+     */
+    public final Sort where (final Bson filter) {
+        this.filter = (this.filter == null) ? filter : Filter.and(this.filter, filter);
+        return this;
+    }
+
+    /**
+     * Allows to force the index used by the server
+     * @param fields the fields of the index, in ascending order
+     * @return The current instance
+     */
+    public final Sort hint (final String... fields) {
+        return hint(Indexes.ascending(fields));
+    }
+
+    /**
+     * Allows to force the index used by the server
+     * @param index the keys of the index (ex: Indexes.descending("score"))
+     * @return The current instance
+     */
+    public final Sort hint (final Bson index) {
+        this.hint = index;
+        this.hintName = null;
+        return this;
+    }
+
+    /**
+     * Allows to force the index used by the server, by its name
+     * @param name the name of the index
+     * @return The current instance
+     */
+    public final Sort hintName (final String name) {
+        this.hintName = name;
+        this.hint = null;
+        return this;
+    }
+
     private Sort addRule (final boolean ascending, final String... fields) {
-        final Bson choice = (ascending) ? Sorts.ascending(fields) : Sorts.descending(fields);
-        this.iter = (this.iter == null) ? manager.collection.find().sort(choice) : this.iter.sort(choice);
+        for (final String field : fields)
+            order.append(field, (ascending) ? 1 : -1);
+        // the rules are cumulated in their order of addition
         return this;
     }
 
@@ -66,26 +230,294 @@ public final class Sort implements Closeable {
 
     // _________________________________________________________________________________________________________________
 
+    private <D> FindIterable<D> find (final Class<D> clazz, final Bson defaultProjection) {
+        return find(clazz, defaultProjection, null);
+    }
+
+    private <D> FindIterable<D> find (final Class<D> clazz, final Bson defaultProjection, final Bson extra) {
+        manager.flushWrites();
+        // the buffered mutations must be visible in the ranking (the counters are merged in the documents, not flushed)
+        final Bson condition = (extra == null) ? filter : (filter == null) ? extra : Filter.and(filter, extra);
+        final FindIterable<D> res = manager.collection.find((condition != null) ? condition : new Document(), clazz)
+                .sort(order)
+                .projection((projection != null) ? projection : defaultProjection);
+        if (hint != null)
+            res.hint(hint);
+        else if (hintName != null)
+            res.hintString(hintName);
+        if (batchSize > 0)
+            res.batchSize(batchSize);
+        return (limit == 0) ? res : res.limit(limit);
+    }
+
+    private static Bson defaultProjection (final Class<?> clazz) {
+        return (StructureCodecProvider.isStructure(clazz)) ? FieldMapper.of(clazz).projection : null;
+        // Document, RawBsonDocument ...: all the fields
+    }
+
     public final FindIterable<Document> getIterable () {
-        return (limit == 0) ? iter : iter.limit(limit);
+        return find(Document.class, null);
     }
 
     public final List<Document> getDocuments () {
         final List<Document> res = new ArrayList<>();
-        getIterable().iterator().forEachRemaining(res::add);
+        getIterable().iterator().forEachRemaining(doc -> res.add(manager.mergeCounters(doc)));
         close();
         return res;
     }
 
+    /**
+     * Allows to retrieve the documents without decoding them: the fields are decoded only when they are read,
+     * and the BSON bytes can be forwarded as is (getByteBuffer())
+     * @return the raw documents
+     */
+    public final List<RawBsonDocument> getRawBsons () {
+        return getRaws(RawBsonDocument.class);
+    }
+
     public final <D> List<D> getRaws (final Class<D> structure) {
         final List<D> res = new ArrayList<>();
-        getIterable().iterator().forEachRemaining(x -> res.add(manager.getRawFromDocument(x, structure)));
+        find(structure, defaultProjection(structure)).iterator().forEachRemaining(res::add);
+        // decoded directly from the BSON by the codec of the collection
         close();
         return res;
     }
 
+    /**
+     * Allows to iterate the results without loading them all in memory
+     * @param structure the chosen structure, Document.class or RawBsonDocument.class
+     * @param <D> the type of the results
+     * @return the cursor, to close if the iteration is stopped before the end
+     */
+    public final <D> Cursor<D> iterator (final Class<D> structure) {
+        return new Cursor<>(find(structure, defaultProjection(structure)).iterator());
+    }
+
+    /**
+     * Allows to split the results without loading them all in memory
+     * @param structure the chosen structure, Document.class or RawBsonDocument.class
+     * @param <D> the type of the results
+     * @return the spliterator, ordered like the ranking
+     */
+    public final <D> Spliterator<D> spliterator (final Class<D> structure) {
+        return Spliterators.spliteratorUnknownSize(iterator(structure), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * Allows to walk the results with a constant memory, the documents are decoded lazily
+     * The stream must be closed (try-with-resources) if it is not consumed entirely
+     * @param structure the chosen structure, Document.class or RawBsonDocument.class
+     * @param <D> the type of the results
+     * @return the sequential stream of the results
+     */
+    public final <D> Stream<D> stream (final Class<D> structure) {
+        final Cursor<D> cursor = iterator(structure);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL),
+                false
+        ).onClose(cursor::close);
+    }
+
+    /**
+     * Allows to retrieve a page of the ranking, the next pages are found by the position of the last result (keyset),
+     * so a deep page costs the same as the first one, unlike a skip.
+     * The results of same rank are separated by their _id, an index on the fields of the ranking followed by _id is advised.
+     * The fields of the ranking must not be excluded by the projection, they can be null or missing
+     * (first in an ascending ranking, last in a descending one, like the order of MongoDB).
+     * @param structure the chosen structure, Document.class or RawBsonDocument.class
+     * @param size the number of results by page
+     * @param token the token of the previous page (Page.next), null for the first page
+     * @param <D> the type of the results
+     * @return the page, with the token of the next page
+     */
+    public final <D> Page<D> page (final Class<D> structure, final int size, final String token) {
+        final Document keys = getKeysetOrder();
+        final Bson after = (token != null) ? getAfterFilter(keys, decodeToken(keys, token)) : null;
+
+        final Bson defaultProjection = (!StructureCodecProvider.isStructure(structure)) ? null : Projections.include(
+                concat(FieldMapper.of(structure).names, keys.keySet())
+        );
+
+        final Class<?> read = (structure == RawBsonDocument.class) ? RawBsonDocument.class : Document.class;
+        // RawBsonDocument: read without decoding, the fields of the token are read in the BSON
+        final List<Object> docs = new ArrayList<>(size + 1);
+        find(read, defaultProjection, after).sort(keys).limit(size + 1).batchSize(size + 1)
+                .iterator().forEachRemaining(docs::add);
+        // one more result to know if there is a next page
+
+        final boolean hasNext = docs.size() > size;
+        if (hasNext)
+            docs.remove(size);
+
+        final String next = (hasNext) ? encodeToken(keys, docs.get(docs.size() - 1)) : null;
+        // before the merge of the counters: the next page is found from the values in the DB
+
+        final List<D> items = new ArrayList<>(docs.size());
+        for (final Object doc : docs) {
+            if (structure == RawBsonDocument.class)
+                items.add(structure.cast(doc));
+            else if (structure == Document.class)
+                items.add(structure.cast(manager.mergeCounters((Document) doc)));
+            else
+                items.add(manager.getRawFromDocument(manager.mergeCounters((Document) doc), structure));
+        }
+        return new Page<>(items, next);
+    }
+
+    /**
+     * Allows to retrieve a page of the ranking, asynchronously
+     * @param structure the chosen structure, Document.class or RawBsonDocument.class
+     * @param size the number of results by page
+     * @param token the token of the previous page, null for the first page
+     * @param <D> the type of the results
+     * @return the future page
+     */
+    public final <D> CompletableFuture<Page<D>> pageAsync (final Class<D> structure, final int size, final String token) {
+        final Sort copy = copy();
+        return manager.getDispatcher().supply(() -> copy.page(structure, size, token));
+    }
+
+    /**
+     * The order of the ranking, with _id as last rule: each result has an unique position
+     */
+    private Document getKeysetOrder () {
+        final Document res = new Document(order);
+        if (!res.containsKey("_id"))
+            res.append("_id", 1);
+        return res;
+    }
+
+    /**
+     * The results after the last one: { $or: [ { k1 > v1 }, { k1 = v1, k2 > v2 }, ... ] }
+     */
+    private static Bson getAfterFilter (final Document keys, final List<?> values) {
+        final List<String> names = new ArrayList<>(keys.keySet());
+        final List<Bson> res = new ArrayList<>(names.size());
+        for (int ind = 0; ind < names.size(); ind++) {
+            final String name = names.get(ind);
+            final Bson after = getAfterRule(name, ((Number) keys.get(name)).intValue() > 0, values.get(ind));
+            if (after == null)
+                continue;
+
+            final List<Bson> rule = new ArrayList<>(ind + 1);
+            for (int prev = 0; prev < ind; prev++)
+                rule.add(Filters.eq(names.get(prev), values.get(prev)));
+                // { k: null } matches null and missing, they are equal in the order
+            rule.add(after);
+            res.add((rule.size() == 1) ? rule.get(0) : Filters.and(rule));
+        }
+        return (res.size() == 1) ? res.get(0) : Filters.or(res);
+    }
+
+    /**
+     * The values of a field after a value, in the order of the ranking
+     * null and missing are before all the other values: $gt and $lt never match them, and nothing is $gt null
+     * @return the condition, null if no value is after it
+     */
+    private static Bson getAfterRule (final String name, final boolean ascending, final Object value) {
+        if (ascending)
+            return (value == null) ? Filters.ne(name, null) : Filters.gt(name, value);
+        if (value == null)
+            return null;
+        return Filters.or(Filters.lt(name, value), Filters.eq(name, null));
+        // descending: the nulls come after the last value
+    }
+
+    private String encodeToken (final Document keys, final Object last) {
+        final List<Object> values = new ArrayList<>(keys.size());
+        for (final String key : keys.keySet())
+            values.add(valueOf(last, key));
+
+        final BasicOutputBuffer buffer = new BasicOutputBuffer();
+        getDocumentCodec().encode(
+                new BsonBinaryWriter(buffer),
+                new Document("k", new ArrayList<>(keys.keySet())).append("v", values),
+                EncoderContext.builder().build()
+        );
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+    }
+
+    private List<?> decodeToken (final Document keys, final String token) {
+        final Document res;
+        try {
+            res = getDocumentCodec().decode(
+                    new BsonBinaryReader(ByteBuffer.wrap(Base64.getUrlDecoder().decode(token))),
+                    DecoderContext.builder().build()
+            );
+        } catch (final RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+        if (!new ArrayList<>(keys.keySet()).equals(res.get("k")))
+            throw new IllegalArgumentException("The page token belongs to another ranking: " + res.get("k"));
+        return (List<?>) res.get("v");
+    }
+
+    private Codec<Document> getDocumentCodec () {
+        return manager.collection.getCodecRegistry().get(Document.class);
+    }
+
+    private static Object valueOf (final Object doc, final String path) {
+        Object res = doc;
+        for (final String part : path.split("\\.")) {
+            if (res instanceof Document)
+                res = ((Document) res).get(part);
+            else if (res instanceof BsonDocument)
+                res = ((BsonDocument) res).get(part);
+                // a raw document: only this field is read, as a BsonValue (encoded as is in the token)
+            else
+                return null;
+        }
+        return res;
+    }
+
+    private static String[] concat (final String[] names, final Collection<String> others) {
+        final List<String> res = new ArrayList<>(Arrays.asList(names));
+        for (final String other : others) {
+            if (!res.contains(other))
+                res.add(other);
+        }
+        return res.toArray(new String[0]);
+    }
+
+    /**
+     * Allows to retrieve the documents, asynchronously
+     * @return the future list of documents
+     */
+    public final CompletableFuture<List<Document>> getDocumentsAsync () {
+        final Sort copy = copy();
+        close();
+        return manager.getDispatcher().supply(copy::getDocuments);
+    }
+
+    /**
+     * Allows to retrieve the documents as structures, asynchronously
+     * @param structure the chosen structure
+     * @return the future list of structures
+     */
+    public final <D> CompletableFuture<List<D>> getRawsAsync (final Class<D> structure) {
+        final Sort copy = copy();
+        close();
+        return manager.getDispatcher().supply(() -> copy.getRaws(structure));
+    }
+
+    private Sort copy () {
+        final Sort res = new Sort(manager);
+        res.order.putAll(order);
+        res.limit = limit;
+        res.batchSize = batchSize;
+        res.projection = projection;
+        res.filter = filter;
+        res.hint = hint;
+        res.hintName = hintName;
+        // the rules are frozen at the call, the instance can be reused immediately
+        return res;
+    }
+
     public void close () {
-        iter = null;
+        order.clear();
+        for (final Cursor<?> cursor : cursors)
+            cursor.close();
+        // the iterations in progress release their server cursor
     }
 
 }
\ No newline at end of file
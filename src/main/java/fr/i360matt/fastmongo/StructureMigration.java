@@ -0,0 +1,232 @@
+package fr.i360matt.fastmongo;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class applies a structure to the existing documents of a collection: the missing fields receive their default value.
+ *
+ * All the missing fields are added in a single pass, thanks to an aggregation-pipeline update (MongoDB 4.2+).
+ * With a batch size, the collection is cut in ranges of _id which are updated one after the other (or in parallel),
+ * the progress is reported after each range and the migration can be resumed after the last range completed.
+ *
+ * @author 360matt
+ */
+public final class StructureMigration {
+
+    /**
+     * Receives the progress of the migration
+     */
+    public interface Listener {
+        /**
+         * @param matched the number of documents which missed at least one field
+         * @param modified the number of documents modified
+         * @param checkpoint the last _id of the completed ranges, to give to resumeAfter()
+         */
+        void progress (long matched, long modified, Object checkpoint);
+    }
+
+    private final CollectionManager manager;
+    public final Document defaults;
+
+    private int batchSize;
+    private int parallelism = 1;
+    private Object checkpoint;
+    private Listener listener;
+
+    private long matched;
+    private long modified;
+
+    /**
+     * Allows to prepare the migration of a collection
+     * @param manager the manager of the collection
+     * @param structure the structure to apply, its default values are those of a new instance
+     */
+    public StructureMigration (final CollectionManager manager, final Class<?> structure) {
+        this.manager = manager;
+        this.defaults = manager.getDefaultDocument(structure);
+    }
+
+    /**
+     * Allows to cut the collection in ranges of documents, 0 to update everything in a single request (default)
+     * @param batchSize the number of documents to migrate by range
+     * @return The current instance
+     */
+    public StructureMigration batchSize (final int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Allows to update several ranges at the same time
+     * @param parallelism the number of ranges in flight
+     * @return The current instance
+     */
+    public StructureMigration parallelism (final int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Allows to resume an interrupted migration
+     * @param checkpoint the last checkpoint received by the listener
+     * @return The current instance
+     */
+    public StructureMigration resumeAfter (final Object checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Allows to follow the progress of the migration
+     * @param listener the listener called after each range
+     * @return The current instance
+     */
+    public StructureMigration onProgress (final Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public long getMatched () { return matched; }
+    public long getModified () { return modified; }
+    public Object getCheckpoint () { return checkpoint; }
+
+    // _________________________________________________________________________________________________________________
+
+    /**
+     * Allows to execute the migration
+     * @return The current instance, with the counters
+     */
+    public StructureMigration run () {
+        if (defaults.isEmpty())
+            return this;
+
+        manager.flushWrites();
+        final Bson missing = getMissingFilter();
+
+        if (batchSize <= 0) {
+            add(update(rangeOf(checkpoint, null, missing)));
+            report();
+        } else {
+            runPartitions(missing);
+        }
+
+        final DocumentCache cache = manager.getNearCache();
+        if (cache != null)
+            cache.clear();
+        return this;
+    }
+
+    private void runPartitions (final Bson missing) {
+        final Deque<Object[]> inFlight = new ArrayDeque<>();
+        // { upper bound, future result }, in the order of the ranges
+
+        Object lower = checkpoint;
+        boolean last = false;
+        while (!last) {
+            final Document bound = manager.collection.find(rangeOf(lower, null, missing))
+                    .projection(Projections.include("_id"))
+                    .sort(Sorts.ascending("_id"))
+                    .skip(batchSize - 1)
+                    .first();
+            // the last document of the range: the ranges are bounded by the index of _id
+
+            final Object upper = (bound != null) ? bound.get("_id") : null;
+            last = upper == null;
+
+            final Bson range = rangeOf(lower, upper, missing);
+            inFlight.add(new Object[] { upper, manager.getDispatcher().supply(() -> update(range)) });
+            lower = upper;
+
+            while (inFlight.size() >= parallelism || (last && !inFlight.isEmpty()))
+                complete(inFlight.poll());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete (final Object[] range) {
+        add(((CompletableFuture<UpdateResult>) range[1]).join());
+        if (range[0] != null)
+            checkpoint = range[0];
+        report();
+        // the checkpoint moves only when all the previous ranges are completed
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    private UpdateResult update (final Bson filter) {
+        try {
+            return manager.collection.updateMany(filter, getPipeline());
+        } catch (final MongoCommandException e) {
+            // server without pipeline updates (< 4.2): one update per field, on the same range
+            long matchedCount = 0, modifiedCount = 0;
+            for (final Map.Entry<String, Object> entry : defaults.entrySet()) {
+                final UpdateResult res = manager.collection.updateMany(
+                        Filters.and(filter, Filters.exists(entry.getKey(), false)),
+                        new Document("$set", new Document(entry.getKey(), entry.getValue()))
+                );
+                matchedCount = Math.max(matchedCount, res.getMatchedCount());
+                modifiedCount = Math.max(modifiedCount, res.getModifiedCount());
+            }
+            return UpdateResult.acknowledged(matchedCount, modifiedCount, null);
+        }
+    }
+
+    private List<Bson> getPipeline () {
+        final Document fields = new Document();
+        for (final Map.Entry<String, Object> entry : defaults.entrySet()) {
+            final String path = "$" + entry.getKey();
+            fields.append(entry.getKey(), new Document("$cond", new Document()
+                    .append("if", new Document("$eq", Arrays.asList(new Document("$type", path), "missing")))
+                    .append("then", new Document("$literal", entry.getValue()))
+                    .append("else", path)
+            ));
+            // the existing values (even null) are kept
+        }
+        return Collections.singletonList(new Document("$set", fields));
+    }
+
+    private Bson getMissingFilter () {
+        final List<Bson> res = new ArrayList<>(defaults.size());
+        for (final String field : defaults.keySet())
+            res.add(Filters.exists(field, false));
+        return (res.size() == 1) ? res.get(0) : Filters.or(res);
+    }
+
+    private static Bson rangeOf (final Object lower, final Object upper, final Bson missing) {
+        final List<Bson> res = new ArrayList<>(3);
+        if (lower != null)
+            res.add(Filters.gt("_id", lower));
+        if (upper != null)
+            res.add(Filters.lte("_id", upper));
+        res.add(missing);
+        return (res.size() == 1) ? missing : Filters.and(res);
+    }
+
+    private void add (final UpdateResult result) {
+        if (result.wasAcknowledged()) {
+            matched += result.getMatchedCount();
+            modified += result.getModifiedCount();
+        }
+    }
+
+    private void report () {
+        if (listener != null)
+            listener.progress(matched, modified, checkpoint);
+    }
+
+}
@@ -0,0 +1,310 @@
+package fr.i360matt.fastmongo;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class buffers the mutations of the elements of a collection and sends them in one batched command.
+ *
+ * The mutations are merged by document: the last $set of a field is kept, the $inc are summed, the $push are grouped with $each.
+ * A mutation which cannot be merged (ex: $inc after a $set of the same field) starts a new update for this document,
+ * it will be sent after the previous one.
+ *
+ * The buffer is sent as an unordered bulkWrite when it reaches its maximum size, at each interval, on flush(),
+ * and when the JVM stops.
+ *
+ * @author 360matt
+ */
+public final class WriteBehind {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "FastMongo-WriteBehind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<WriteBehind> instances = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(WriteBehind::flushAll, "FastMongo-WriteBehind-Shutdown"));
+    }
+
+    /**
+     * Allows to send the buffers of all the collections
+     */
+    public static void flushAll () {
+        for (final WriteBehind candidate : instances)
+            candidate.flush();
+    }
+
+
+    /**
+     * One update of a document, with its merged operators
+     */
+    private static final class Segment {
+        private final Document update = new Document();
+        private final Map<String, List<Object>> pushed = new HashMap<>();
+        private boolean upsert;
+    }
+
+    private final CollectionManager manager;
+    public final int maxPending;
+    public final long intervalMillis;
+
+    private final Object flushLock = new Object();
+    private Map<String, List<Segment>> pending = new LinkedHashMap<>();
+    private int size;
+    private final ScheduledFuture<?> task;
+
+    /**
+     * Allows to create the buffer of a collection
+     * @param manager the manager of the collection
+     * @param maxPending the number of buffered updates (after merge) which triggers a flush
+     * @param intervalMillis the maximum time between two flushes
+     */
+    public WriteBehind (final CollectionManager manager, final int maxPending, final long intervalMillis) {
+        this.manager = manager;
+        this.maxPending = maxPending;
+        this.intervalMillis = intervalMillis;
+        this.task = scheduler.scheduleWithFixedDelay(this::scheduledFlush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        instances.add(this);
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    /**
+     * Allows to buffer a mutation
+     * @param id the id of the document
+     * @param operator the update operator (ex: $set, $inc)
+     * @param fields the fields of the operator
+     * @param upsert if the document must be created when it doesn't exist
+     */
+    public void add (final String id, final String operator, final Document fields, final boolean upsert) {
+        final boolean full;
+        synchronized (this) {
+            final List<Segment> segments = pending.computeIfAbsent(id, key -> new ArrayList<>(1));
+            Segment segment = (segments.isEmpty()) ? null : segments.get(segments.size() - 1);
+
+            if (segment == null || (upsert && !segment.upsert) || !merge(segment, operator, fields, true)) {
+                segment = new Segment();
+                segment.upsert = upsert;
+                segments.add(segment);
+                merge(segment, operator, fields, false);
+                size++;
+                // first mutation, conflict, or upsert after an update (the update must not create the document): a new update
+            }
+            // an update after an upsert can be merged, the document exists after the upsert anyway
+            full = size >= maxPending;
+        }
+
+        if (full)
+            scheduler.execute(this::scheduledFlush);
+    }
+
+    /**
+     * Sends the buffer from the scheduler: an exception must not cancel the periodic task
+     */
+    private void scheduledFlush () {
+        try {
+            flush();
+        } catch (final RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Allows to send all the buffered mutations
+     */
+    public void flush () {
+        synchronized (flushLock) {
+            final Map<String, List<Segment>> toSend;
+            synchronized (this) {
+                if (pending.isEmpty())
+                    return;
+                toSend = pending;
+                pending = new LinkedHashMap<>();
+                size = 0;
+            }
+
+            for (int round = 0; ; round++) {
+                final List<WriteModel<Document>> models = new ArrayList<>(toSend.size());
+                for (final Map.Entry<String, List<Segment>> entry : toSend.entrySet()) {
+                    if (round < entry.getValue().size())
+                        models.add(toModel(entry.getKey(), entry.getValue().get(round)));
+                }
+                if (models.isEmpty())
+                    break;
+                write(models, false);
+                // the updates of the same document are sent in successive rounds to keep their order
+            }
+        }
+    }
+
+    /**
+     * Allows to send the buffered mutations of a single document
+     * Must be called before any direct read/write of this document
+     * @param id the id of the document
+     */
+    public void flush (final String id) {
+        synchronized (flushLock) {
+            final List<Segment> segments;
+            synchronized (this) {
+                segments = pending.remove(id);
+                if (segments == null)
+                    return;
+                size -= segments.size();
+            }
+
+            final List<WriteModel<Document>> models = new ArrayList<>(segments.size());
+            for (final Segment segment : segments)
+                models.add(toModel(id, segment));
+            write(models, true);
+        }
+    }
+
+    /**
+     * Allows to stop the buffer, the remaining mutations are sent
+     */
+    public void close () {
+        task.cancel(false);
+        instances.remove(this);
+        flush();
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    private UpdateOneModel<Document> toModel (final String id, final Segment segment) {
+        return new UpdateOneModel<>(
+                new Document(manager.fieldID, id),
+                segment.update,
+                (segment.upsert) ? Element.UPSERT : Element.UPDATE
+        );
+    }
+
+    private void write (final List<WriteModel<Document>> models, final boolean ordered) {
+        try {
+            manager.getWriteCollection(null).bulkWrite(models, new BulkWriteOptions().ordered(ordered));
+        } catch (final RuntimeException e) {
+            e.printStackTrace();
+            // not only MongoException (ex: a value without codec): the other rounds are still sent
+        }
+    }
+
+    /**
+     * Allows to merge an operator in an update
+     * @param segment the update of the document
+     * @param operator the update operator
+     * @param fields the fields of the operator
+     * @param check if the conflicts must be verified
+     * @return false if the operator is in conflict with the update, nothing is modified in this case
+     */
+    private static boolean merge (final Segment segment, final String operator, final Document fields, final boolean check) {
+        if (check) {
+            for (final Map.Entry<String, Object> field : fields.entrySet()) {
+                if (conflicts(segment, operator, field.getKey(), field.getValue()))
+                    return false;
+            }
+        }
+
+        Document target = (Document) segment.update.get(operator);
+        if (target == null) {
+            target = new Document();
+            segment.update.put(operator, target);
+        }
+
+        for (final Map.Entry<String, Object> entry : fields.entrySet()) {
+            final String key = entry.getKey();
+
+            if (!target.containsKey(key)) {
+                target.put(key, entry.getValue());
+            } else if ("$inc".equals(operator)) {
+                target.put(key, sum((Number) target.get(key), (Number) entry.getValue()));
+            } else if ("$push".equals(operator)) {
+                List<Object> values = segment.pushed.get(key);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    values.add(target.get(key));
+                    segment.pushed.put(key, values);
+                    target.put(key, new Document("$each", values));
+                }
+                values.add(entry.getValue());
+                // several values pushed in the same array: { $each: [ ... ] }
+            } else {
+                target.put(key, entry.getValue());
+                // $set, $setOnInsert, $unset: the last value is kept
+            }
+        }
+        return true;
+    }
+
+    private static boolean conflicts (final Segment segment, final String operator, final String key, final Object value) {
+        for (final Map.Entry<String, Object> entry : segment.update.entrySet()) {
+            final boolean same = entry.getKey().equals(operator);
+
+            for (final Map.Entry<String, Object> field : ((Document) entry.getValue()).entrySet()) {
+                final String other = field.getKey();
+
+                if (other.equals(key)) {
+                    if (!same)
+                        return true;
+                    switch (operator) {
+                        case "$set": case "$setOnInsert": case "$unset":
+                            break;
+                        case "$inc":
+                            if (!isSummable(field.getValue()) || !isSummable(value))
+                                return true;
+                            break;
+                        case "$push":
+                            if ((!segment.pushed.containsKey(key) && isModifier(field.getValue())) || isModifier(value))
+                                return true;
+                            break;
+                        default:
+                            return true;
+                    }
+                } else if (other.startsWith(key + ".") || key.startsWith(other + ".")) {
+                    return true;
+                    // ex: "stats" and "stats.kills" can't be modified in the same update
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isModifier (final Object value) {
+        if (value instanceof Document) {
+            for (final String key : ((Document) value).keySet())
+                if (key.startsWith("$"))
+                    return true;
+        }
+        return false;
+    }
+
+    private static boolean isSummable (final Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte;
+    }
+
+    private static Number sum (final Number a, final Number b) {
+        if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float)
+            return a.doubleValue() + b.doubleValue();
+        if (a instanceof Long || b instanceof Long)
+            return a.longValue() + b.longValue();
+
+        final long res = (long) a.intValue() + b.intValue();
+        return (res == (int) res) ? (Number) (int) res : (Number) res;
+    }
+
+}
@@ -0,0 +1,29 @@
+package fr.i360matt.fastmongo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index on several fields of a structure, created by CollectionManager.ensureIndexes()
+ * Example: @CompoundIndex({ "region", "-score" }) for the rankings by region
+ *
+ * @author 360matt
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(CompoundIndexes.class)
+public @interface CompoundIndex {
+
+    /**
+     * @return the fields of the index in their order, prefixed by '-' for a descending order
+     */
+    String[] value ();
+
+    boolean unique () default false;
+
+    boolean sparse () default false;
+
+}
@@ -0,0 +1,19 @@
+package fr.i360matt.fastmongo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The container of the repeated @CompoundIndex
+ *
+ * @author 360matt
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CompoundIndexes {
+
+    CompoundIndex[] value ();
+
+}
@@ -0,0 +1,33 @@
+package fr.i360matt.fastmongo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index on a field of a structure, created by CollectionManager.ensureIndexes()
+ *
+ * @author 360matt
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+
+    /**
+     * @return true for a descending index
+     */
+    boolean descending () default false;
+
+    /**
+     * @return true to ignore the documents without this field
+     */
+    boolean sparse () default false;
+
+    /**
+     * Allows to delete the documents automatically (TTL), the field must contain a date
+     * @return the lifetime of the documents in seconds, -1 to never delete them
+     */
+    long expireAfterSeconds () default -1;
+
+}
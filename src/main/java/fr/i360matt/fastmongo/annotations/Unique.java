@@ -0,0 +1,22 @@
+package fr.i360matt.fastmongo.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an unique index on a field of a structure, created by CollectionManager.ensureIndexes()
+ *
+ * @author 360matt
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Unique {
+
+    /**
+     * @return true to ignore the documents without this field
+     */
+    boolean sparse () default false;
+
+}
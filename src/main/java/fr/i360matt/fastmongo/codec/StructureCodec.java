@@ -0,0 +1,278 @@
+package fr.i360matt.fastmongo.codec;
+
+import fr.i360matt.fastmongo.utils.FieldMapper;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.BsonTypeCodecMap;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class encodes and decodes a structure directly from/to BSON, without intermediate Document.
+ *
+ * Nested structures, lists, maps, arrays and enums are supported,
+ * and the numbers are converted to the numeric type of the field.
+ * Fields unknown to the structure or with an incompatible type are ignored without causing an error.
+ *
+ * @author 360matt
+ *
+ * @param <D> Structure Type
+ */
+public final class StructureCodec<D> implements Codec<D> {
+
+    private static final BsonTypeClassMap classMap = new BsonTypeClassMap();
+
+    private final FieldMapper<D> mapper;
+    private final CodecRegistry registry;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private BsonTypeCodecMap bsonTypeCodecMap;
+
+    public StructureCodec (final Class<D> structure, final CodecRegistry registry) {
+        this.mapper = FieldMapper.of(structure);
+        this.registry = registry;
+
+        for (int ind = 0; ind < mapper.names.length; ind++)
+            indexes.put(mapper.names[ind], ind);
+    }
+
+    @Override
+    public Class<D> getEncoderClass () {
+        return mapper.structure;
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    @Override
+    public void encode (final BsonWriter writer, final D value, final EncoderContext ctx) {
+        writer.writeStartDocument();
+        for (int ind = 0; ind < mapper.names.length; ind++) {
+            writer.writeName(mapper.names[ind]);
+            writeValue(writer, mapper.get(value, ind), ctx);
+        }
+        writer.writeEndDocument();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void writeValue (final BsonWriter writer, final Object value, final EncoderContext ctx) {
+        if (value == null)
+            writer.writeNull();
+        else if (value instanceof Enum)
+            writer.writeString(((Enum) value).name());
+        else if (value instanceof Iterable && !(value instanceof Bson)) {
+            writer.writeStartArray();
+            for (final Object element : (Iterable<?>) value)
+                writeValue(writer, element, ctx);
+            writer.writeEndArray();
+        } else if (value instanceof Map && !(value instanceof Bson)) {
+            writer.writeStartDocument();
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.writeName(String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue(), ctx);
+            }
+            writer.writeEndDocument();
+        } else if (value.getClass().isArray() && !(value instanceof byte[])) {
+            writer.writeStartArray();
+            for (int ind = 0; ind < Array.getLength(value); ind++)
+                writeValue(writer, Array.get(value, ind), ctx);
+            writer.writeEndArray();
+        } else
+            ctx.encodeWithChildContext((Encoder) registry.get(value.getClass()), writer, value);
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    @Override
+    public D decode (final BsonReader reader, final DecoderContext ctx) {
+        final D res = mapper.newInstance();
+        if (res == null)
+            throw new CodecConfigurationException("The structure " + mapper.structure.getName() + " needs an accessible empty constructor");
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final Integer index = indexes.get(reader.readName());
+
+            if (index == null || !mapper.isWritable(index)) {
+                reader.skipValue();
+                continue;
+                // this field is not part of the structure
+            }
+
+            final Class<?> type = mapper.fields[index].getType();
+            final Object value = readValue(reader, ctx, type, mapper.fields[index].getGenericType());
+            if (value == null ? !type.isPrimitive() : wrap(type).isInstance(value))
+                mapper.set(res, index, value);
+            // incompatible values are ignored, the default value is kept
+        }
+        reader.readEndDocument();
+        return res;
+    }
+
+    private Object readValue (final BsonReader reader, final DecoderContext ctx, final Class<?> type, final Type generic) {
+        final BsonType bsonType = reader.getCurrentBsonType();
+
+        if (bsonType == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+
+        if (isNumeric(bsonType) && (type.isPrimitive() || Number.class.isAssignableFrom(type)))
+            return FieldMapper.convert(readNumber(reader, bsonType), type);
+
+        if (bsonType == BsonType.STRING && type.isEnum())
+            return FieldMapper.convert(reader.readString(), type);
+
+        if (bsonType == BsonType.ARRAY) {
+            if (Collection.class.isAssignableFrom(type))
+                return readCollection(reader, ctx, type, argument(generic, 0));
+            if (type.isArray())
+                return readArray(reader, ctx, type.getComponentType());
+        }
+
+        if (bsonType == BsonType.DOCUMENT && Map.class.isAssignableFrom(type))
+            return readMap(reader, ctx, type, argument(generic, 1));
+
+        final Class<?> natural = classMap.get(bsonType);
+        final boolean compatible = (natural != null && type.isAssignableFrom(natural))
+                || (bsonType == BsonType.DOCUMENT && StructureCodecProvider.isStructure(type));
+        if (type != Object.class && !type.isPrimitive() && compatible) {
+            // ex: a String, a Date, a Document or a nested structure
+            try {
+                return ctx.decodeWithChildContext(registry.get(type), reader);
+            } catch (final CodecConfigurationException e) {
+                // no codec for this type, we fall back on the generic reading
+            }
+        }
+
+        return FieldMapper.convert(readGeneric(reader, ctx, bsonType), type);
+    }
+
+    private Object readGeneric (final BsonReader reader, final DecoderContext ctx, final BsonType bsonType) {
+        if (bsonTypeCodecMap == null)
+            bsonTypeCodecMap = new BsonTypeCodecMap(classMap, registry);
+        return ctx.decodeWithChildContext(bsonTypeCodecMap.get(bsonType), reader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> readCollection (final BsonReader reader, final DecoderContext ctx, final Class<?> type, final Type element) {
+        final Collection<Object> res;
+        if (type.isAssignableFrom(ArrayList.class))
+            res = new ArrayList<>();
+        else if (type.isAssignableFrom(LinkedHashSet.class))
+            res = new LinkedHashSet<>();
+        else
+            res = (Collection<Object>) FieldMapper.of(type).newInstance();
+
+        if (res == null) {
+            reader.skipValue();
+            return null;
+        }
+
+        final Class<?> elementType = erase(element);
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+            res.add(readValue(reader, ctx, elementType, element));
+        reader.readEndArray();
+        return res;
+    }
+
+    private Object readArray (final BsonReader reader, final DecoderContext ctx, final Class<?> component) {
+        final List<Object> values = new ArrayList<>();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+            values.add(readValue(reader, ctx, component, component));
+        reader.readEndArray();
+
+        final Object res = Array.newInstance(component, values.size());
+        for (int ind = 0; ind < values.size(); ind++) {
+            final Object value = values.get(ind);
+            if (value == null ? !component.isPrimitive() : wrap(component).isInstance(value))
+                Array.set(res, ind, value);
+        }
+        return res;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readMap (final BsonReader reader, final DecoderContext ctx, final Class<?> type, final Type value) {
+        final Map<String, Object> res;
+        if (type.isAssignableFrom(LinkedHashMap.class))
+            res = new LinkedHashMap<>();
+        else
+            res = (Map<String, Object>) FieldMapper.of(type).newInstance();
+
+        if (res == null) {
+            reader.skipValue();
+            return null;
+        }
+
+        final Class<?> valueType = erase(value);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+            res.put(reader.readName(), readValue(reader, ctx, valueType, value));
+        reader.readEndDocument();
+        return res;
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    private static boolean isNumeric (final BsonType bsonType) {
+        return bsonType == BsonType.INT32 || bsonType == BsonType.INT64
+                || bsonType == BsonType.DOUBLE || bsonType == BsonType.DECIMAL128;
+    }
+
+    private static Number readNumber (final BsonReader reader, final BsonType bsonType) {
+        switch (bsonType) {
+            case INT32: return reader.readInt32();
+            case INT64: return reader.readInt64();
+            case DOUBLE: return reader.readDouble();
+            default: return reader.readDecimal128();
+        }
+    }
+
+    private static Type argument (final Type generic, final int index) {
+        if (generic instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) generic).getActualTypeArguments();
+            if (index < arguments.length)
+                return arguments[index];
+        }
+        return Object.class;
+    }
+
+    private static Class<?> erase (final Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        if (type instanceof ParameterizedType)
+            return erase(((ParameterizedType) type).getRawType());
+        return Object.class;
+    }
+
+    private static Class<?> wrap (final Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == float.class) return Float.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        return Character.class;
+    }
+
+}
@@ -0,0 +1,51 @@
+package fr.i360matt.fastmongo.codec;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * This class provides a StructureCodec for the structure classes.
+ * It must be placed after the codecs of the driver, so that the known types keep their own codecs.
+ * @author 360matt
+ */
+public final class StructureCodecProvider implements CodecProvider {
+
+    private static final StructureCodecProvider instance = new StructureCodecProvider();
+
+    /**
+     * Allows to complete a registry with the structure codecs
+     * @param registry the original registry (the one of the collection)
+     * @return the registry supporting the structures
+     */
+    public static CodecRegistry withStructures (final CodecRegistry registry) {
+        return CodecRegistries.fromRegistries(registry, CodecRegistries.fromProviders(instance));
+    }
+
+    /**
+     * Allows to know if a class is treated as a structure
+     * @param clazz the class in question
+     * @return the answer
+     */
+    public static boolean isStructure (final Class<?> clazz) {
+        if (clazz.isPrimitive() || clazz.isArray() || clazz.isEnum() || clazz.isInterface()
+                || Modifier.isAbstract(clazz.getModifiers())
+                || Collection.class.isAssignableFrom(clazz) || Map.class.isAssignableFrom(clazz))
+            return false;
+
+        final String name = clazz.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.")
+                && !name.startsWith("org.bson.") && !name.startsWith("com.mongodb.");
+    }
+
+    @Override
+    public <T> Codec<T> get (final Class<T> clazz, final CodecRegistry registry) {
+        return isStructure(clazz) ? new StructureCodec<>(clazz, registry) : null;
+    }
+
+}
@@ -0,0 +1,206 @@
+package fr.i360matt.fastmongo.utils;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * This class executes the asynchronous operations on an executor, with a maximum number of operations in flight.
+ * When this limit is reached, the operations wait in a queue until an operation ends, so that a burst can't exhaust
+ * the connection pool of the driver. The caller is never blocked (main thread, or a thread of the executor itself):
+ * beyond the maximum size of the queue, the returned future fails with a RejectedExecutionException.
+ *
+ * By default, the virtual threads are used when they are available (Java 21+), else a pool of daemon threads.
+ *
+ * @author 360matt
+ */
+public final class AsyncDispatcher {
+
+    private static volatile AsyncDispatcher defaultDispatcher;
+
+    /**
+     * Allows to retrieve the dispatcher used by the collections without their own dispatcher
+     * @return the default dispatcher
+     */
+    public static AsyncDispatcher getDefault () {
+        AsyncDispatcher res = defaultDispatcher;
+        if (res == null) {
+            synchronized (AsyncDispatcher.class) {
+                res = defaultDispatcher;
+                if (res == null)
+                    defaultDispatcher = res = new AsyncDispatcher(defaultExecutor(), 100);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Allows to replace the dispatcher used by the collections without their own dispatcher
+     * @param dispatcher the new default dispatcher
+     */
+    public static void setDefault (final AsyncDispatcher dispatcher) {
+        defaultDispatcher = dispatcher;
+    }
+
+    /**
+     * Allows to create the default executor: virtual threads if available, else a pool of daemon threads
+     * @return the executor
+     */
+    public static ExecutorService defaultExecutor () {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "FastMongo-Async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+
+    /**
+     * An operation and its future
+     */
+    private static final class Task<T> implements Runnable {
+        private final Supplier<T> supplier;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task (final Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run () {
+            try {
+                future.complete(supplier.get());
+            } catch (final Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    public final Executor executor;
+    public final int maxInFlight;
+    public final int maxQueued;
+    private final Semaphore permits;
+    private final Queue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * Allows to create a dispatcher, up to 100 operations by operation in flight can wait in the queue
+     * @param executor the executor of the operations
+     * @param maxInFlight the maximum number of operations in flight
+     */
+    public AsyncDispatcher (final Executor executor, final int maxInFlight) {
+        this(executor, maxInFlight, maxInFlight * 100);
+    }
+
+    /**
+     * Allows to create a dispatcher
+     * @param executor the executor of the operations
+     * @param maxInFlight the maximum number of operations in flight
+     * @param maxQueued the maximum number of operations waiting for the others, beyond that they fail
+     */
+    public AsyncDispatcher (final Executor executor, final int maxInFlight, final int maxQueued) {
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Allows to execute an operation which returns a result
+     * @param task the operation
+     * @param <T> the type of the result
+     * @return the future result, failed with a RejectedExecutionException if the queue is full
+     */
+    public <T> CompletableFuture<T> supply (final Supplier<T> task) {
+        final Task<T> res = new Task<>(task);
+        if (permits.tryAcquire()) {
+            start(res);
+        } else if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            res.future.completeExceptionally(new RejectedExecutionException("Too many asynchronous operations waiting: " + maxQueued));
+        } else {
+            queue.add(res);
+            drain();
+            // an operation could have ended before the addition
+        }
+        return res.future;
+    }
+
+    /**
+     * Allows to execute an operation without result
+     * @param task the operation
+     * @return the future end of the operation
+     */
+    public CompletableFuture<Void> run (final Runnable task) {
+        return supply(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Allows to know the number of operations in flight
+     * @return the number of operations
+     */
+    public int getInFlight () {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Allows to know the number of operations waiting in the queue
+     * @return the number of operations
+     */
+    public int getQueued () {
+        return queued.get();
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    /**
+     * Sends an operation to the executor, its permit is already acquired
+     */
+    private void start (final Task<?> task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                    drain();
+                    // the next operation of the queue takes the permit
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            permits.release();
+            task.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Starts the waiting operations while permits are available
+     */
+    private void drain () {
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            final Task<?> task = queue.poll();
+            if (task == null) {
+                permits.release();
+                break;
+            }
+            queued.decrementAndGet();
+            start(task);
+        }
+    }
+
+}
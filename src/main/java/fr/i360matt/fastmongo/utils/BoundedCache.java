@@ -0,0 +1,194 @@
+package fr.i360matt.fastmongo.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class makes it possible to establish a cache with a maximum size and an expiration time.
+ *
+ * The entries are distributed in segments, each one protected by its own lock, so that the threads don't wait for each other.
+ * In each segment, the least recently used entry is evicted when the segment is full.
+ * There is no thread per instance: the expired entries are removed when they are accessed,
+ * and each write removes some expired entries among the least recently used ones (amortised cleanup).
+ *
+ * @author 360matt
+ *
+ * @param <K> Key Type
+ * @param <V> Value Type
+ */
+public class BoundedCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int CLEANUP_SCAN = 4;
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiry;
+
+        private Entry (final V value, final long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+
+        private boolean isExpired (final long now) {
+            return expiry != 0 && expiry <= now;
+        }
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        private Segment (final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            // access order: the head is the least recently used entry
+        }
+    }
+
+    public final int maxSize;
+    public final long expiryInMillis;
+
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Allows to create a cache
+     * @param maxSize the maximum number of entries
+     * @param expiryInMillis the lifetime of an entry, 0 for no expiration
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache (final int maxSize, final long expiryInMillis) {
+        this.maxSize = maxSize;
+        this.expiryInMillis = expiryInMillis;
+
+        final int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxSize / 64)));
+        // small caches keep a single segment, so an exact LRU order
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+        for (int ind = 0; ind < count; ind++)
+            segments[ind] = new Segment<>(maxSize / count + ((ind < maxSize % count) ? 1 : 0));
+    }
+
+    private Segment<K, V> segmentOf (final Object key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    public final V get (final K key) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> entry = segment.get(key);
+            if (entry != null) {
+                if (!entry.isExpired(System.currentTimeMillis())) {
+                    hits.increment();
+                    return entry.value;
+                }
+                segment.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public final boolean containsKey (final K key) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> entry = segment.get(key);
+            return entry != null && !entry.isExpired(System.currentTimeMillis());
+        }
+    }
+
+    public final V put (final K key, final V value) {
+        final long now = System.currentTimeMillis();
+        final Entry<V> created = new Entry<>(value, (expiryInMillis > 0) ? now + expiryInMillis : 0);
+
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> previous = segment.put(key, created);
+            cleanUp(segment, now);
+            return (previous != null && !previous.isExpired(now)) ? previous.value : null;
+        }
+    }
+
+    public final V putIfAbsent (final K key, final V value) {
+        final long now = System.currentTimeMillis();
+
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> previous = segment.get(key);
+            if (previous != null && !previous.isExpired(now))
+                return previous.value;
+
+            segment.put(key, new Entry<>(value, (expiryInMillis > 0) ? now + expiryInMillis : 0));
+            cleanUp(segment, now);
+            return null;
+        }
+    }
+
+    public final V remove (final K key) {
+        final Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            final Entry<V> previous = segment.remove(key);
+            return (previous != null && !previous.isExpired(System.currentTimeMillis())) ? previous.value : null;
+        }
+    }
+
+    public final void clear () {
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public final int size () {
+        int res = 0;
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                res += segment.size();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Allows to remove all the expired entries now
+     */
+    public final void cleanUp () {
+        final long now = System.currentTimeMillis();
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.values().removeIf(entry -> entry.isExpired(now));
+            }
+        }
+    }
+
+    /**
+     * Must be called with the lock of the segment: evicts the overflow and some expired entries
+     */
+    private void cleanUp (final Segment<K, V> segment, final long now) {
+        final Iterator<Map.Entry<K, Entry<V>>> iter = segment.entrySet().iterator();
+        for (int ind = 0; ind < CLEANUP_SCAN && iter.hasNext(); ind++) {
+            final Entry<V> entry = iter.next().getValue();
+            if (segment.size() > segment.capacity) {
+                iter.remove();
+                if (!entry.isExpired(now))
+                    evictions.increment();
+                // the least recently used entry is evicted
+            } else if (entry.isExpired(now)) {
+                iter.remove();
+            }
+        }
+    }
+
+    public final long getHits () { return hits.sum(); }
+    public final long getMisses () { return misses.sum(); }
+    public final long getEvictions () { return evictions.sum(); }
+
+}
@@ -22,7 +22,10 @@ import java.util.concurrent.TimeUnit;
  *
  * @param <K> Key Type
  * @param <V> Value Type
+ *
+ * @deprecated each instance starts its own thread and scans the whole map, use {@link BoundedCache}
  */
+@Deprecated
 public class ExpirableCache<K, V> extends ConcurrentHashMap<K, V> {
 
     private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
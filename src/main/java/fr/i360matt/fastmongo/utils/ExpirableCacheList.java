@@ -13,7 +13,9 @@ import java.util.concurrent.TimeUnit;
  *
  * Adapted for List
  *
+ * @deprecated each instance starts its own thread and the map is not synchronized, use {@link BoundedCache}
  */
+@Deprecated
 public class ExpirableCacheList<K> {
 
     private final HashMap<K, Long> datas = new HashMap<>();
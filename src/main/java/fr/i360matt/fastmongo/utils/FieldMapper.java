@@ -0,0 +1,280 @@
+package fr.i360matt.fastmongo.utils;
+
+import com.mongodb.client.model.Projections;
+import fr.i360matt.fastmongo.codec.StructureCodecProvider;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps the public fields of a structure to its values.
+ * The accessors are resolved once per class with MethodHandles and kept in cache,
+ * so that reading or writing a structure no longer goes through the reflection at each call.
+ *
+ * @author 360matt
+ *
+ * @param <D> Structure Type
+ */
+public final class FieldMapper<D> {
+
+    private static final Map<Class<?>, FieldMapper<?>> mappers = new ConcurrentHashMap<>();
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class);
+
+    /**
+     * Allows to retrieve the mapper of a structure, it is built at the first call only
+     * @param structure data structure class
+     * @param <D> the type of structure
+     * @return the mapper of the structure
+     */
+    @SuppressWarnings("unchecked")
+    public static <D> FieldMapper<D> of (final Class<D> structure) {
+        final FieldMapper<?> candidate = mappers.get(structure);
+        if (candidate != null)
+            return (FieldMapper<D>) candidate;
+        return (FieldMapper<D>) mappers.computeIfAbsent(structure, FieldMapper::new);
+    }
+
+
+    public final Class<D> structure;
+    public final String[] names;
+    public final Field[] fields;
+    public final Bson projection;
+
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+    private final MethodHandle constructor;
+    private volatile boolean failureReported;
+
+    private FieldMapper (final Class<D> structure) {
+        this.structure = structure;
+
+        final List<Field> candidates = new ArrayList<>();
+        for (final Field field : structure.getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()))
+                candidates.add(field);
+        }
+
+        this.fields = candidates.toArray(new Field[0]);
+        this.names = new String[fields.length];
+        this.getters = new MethodHandle[fields.length];
+        this.setters = new MethodHandle[fields.length];
+
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            for (int ind = 0; ind < fields.length; ind++) {
+                final Field field = fields[ind];
+                names[ind] = field.getName();
+                field.setAccessible(true);
+                getters[ind] = lookup.unreflectGetter(field).asType(GETTER);
+
+                if (!Modifier.isFinal(field.getModifiers()))
+                    setters[ind] = lookup.unreflectSetter(field).asType(SETTER);
+                // final fields can be read but never defined
+            }
+        } catch (final IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to map the structure " + structure.getName(), e);
+        }
+
+        MethodHandle candidate;
+        try {
+            final Constructor<D> empty = structure.getDeclaredConstructor();
+            empty.setAccessible(true);
+            candidate = lookup.unreflectConstructor(empty).asType(CONSTRUCTOR);
+        } catch (final NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            candidate = null;
+            // no accessible empty constructor: the structure can still be read but not instantiated
+        }
+        this.constructor = candidate;
+
+        this.projection = (names.length > 0) ? Projections.include(names) : Projections.include("_id");
+        // only the fields of the structure are downloaded ( {} would download the whole document )
+    }
+
+    /**
+     * Allows to convert a value to the type of a field:
+     * numbers are converted to the chosen numeric type, strings to the constants of an enum,
+     * documents to maps or nested structures, lists to the chosen collection type
+     * @param value the original value
+     * @param type the type of the field
+     * @return the converted value, or the original value if no conversion is known
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static Object convert (final Object value, final Class<?> type) {
+        if (value == null || type.isInstance(value))
+            return value;
+
+        if (value instanceof Number) {
+            final Number number = (Number) value;
+            if (type == int.class || type == Integer.class) return number.intValue();
+            if (type == long.class || type == Long.class) return number.longValue();
+            if (type == double.class || type == Double.class) return number.doubleValue();
+            if (type == float.class || type == Float.class) return number.floatValue();
+            if (type == short.class || type == Short.class) return number.shortValue();
+            if (type == byte.class || type == Byte.class) return number.byteValue();
+            if (type == BigDecimal.class) return new BigDecimal(number.toString());
+        } else if (value instanceof String && type.isEnum()) {
+            try {
+                return Enum.valueOf((Class<? extends Enum>) type, (String) value);
+            } catch (final IllegalArgumentException e) {
+                return value;
+                // unknown constant
+            }
+        } else if (value instanceof Boolean && type == boolean.class) {
+            return value;
+        } else if (value instanceof Map && Map.class.isAssignableFrom(type)) {
+            final Map<Object, Object> res = (type.isAssignableFrom(LinkedHashMap.class))
+                    ? new LinkedHashMap<>()
+                    : (Map<Object, Object>) FieldMapper.of(type).newInstance();
+            if (res != null) {
+                res.putAll((Map<?, ?>) value);
+                return res;
+            }
+            // ex: a HashMap field, a Document is not one of them
+        } else if (value instanceof Collection && Collection.class.isAssignableFrom(type)) {
+            final Collection<Object> res;
+            if (type.isAssignableFrom(ArrayList.class))
+                res = new ArrayList<>();
+            else if (type.isAssignableFrom(LinkedHashSet.class))
+                res = new LinkedHashSet<>();
+            else
+                res = (Collection<Object>) FieldMapper.of(type).newInstance();
+            if (res != null) {
+                res.addAll((Collection<?>) value);
+                return res;
+            }
+        } else if (value instanceof Document && StructureCodecProvider.isStructure(type)) {
+            final Object raw = FieldMapper.of(type).fromDocument((Document) value);
+            if (raw != null)
+                return raw;
+        }
+        // the same types as the codec (see StructureCodec.readValue)
+        return value;
+    }
+
+    /**
+     * Allows to get the index of a field
+     * @param name name of the field
+     * @return the index of the field, -1 if it is not part of the structure
+     */
+    public int indexOf (final String name) {
+        for (int ind = 0; ind < names.length; ind++)
+            if (names[ind].equals(name))
+                return ind;
+        return -1;
+    }
+
+    /**
+     * Allows to create a new instance of the structure, with its default values
+     * If the constructor fails, the error is printed only at the first failure of this structure
+     * @return the new instance, null if the structure cannot be instantiated
+     */
+    @SuppressWarnings("unchecked")
+    public D newInstance () {
+        if (constructor == null)
+            return null;
+        try {
+            return (D) (Object) constructor.invokeExact();
+        } catch (final Throwable e) {
+            if (!failureReported) {
+                failureReported = true;
+                new IllegalStateException("cannot instantiate " + structure.getName() + " with its empty constructor", e).printStackTrace();
+            }
+            // on the path of each decoding: the callers fall back on the empty instance, one trace is enough
+            return null;
+        }
+    }
+
+    /**
+     * Allows to read the value of a field
+     * @param raw the instance of the structure
+     * @param index the index of the field
+     * @return the value of the field
+     */
+    public Object get (final Object raw, final int index) {
+        try {
+            return (Object) getters[index].invokeExact(raw);
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Allows to know if a field can be defined
+     * @param index the index of the field
+     * @return false if the field is final
+     */
+    public boolean isWritable (final int index) {
+        return setters[index] != null;
+    }
+
+    /**
+     * Allows to define the value of a field, final fields are ignored
+     * @param raw the instance of the structure
+     * @param index the index of the field
+     * @param value the new value
+     */
+    public void set (final Object raw, final int index, final Object value) {
+        final MethodHandle setter = setters[index];
+        if (setter != null) {
+            try {
+                setter.invokeExact(raw, value);
+            } catch (final Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Allows to copy the fields of a structure in a document
+     * @param raw the instance of the structure
+     * @param doc the document to complete
+     * @return the document completed
+     */
+    public Document toDocument (final Object raw, final Document doc) {
+        for (int ind = 0; ind < names.length; ind++)
+            doc.append(names[ind], get(raw, ind));
+        return doc;
+    }
+
+    /**
+     * Allows to create a new instance of the structure from a document
+     * @param doc the original document
+     * @return the structure completed, null if the structure cannot be instantiated
+     */
+    public D fromDocument (final Document doc) {
+        final D raw = newInstance();
+        return (raw != null) ? fromDocument(doc, raw) : null;
+    }
+
+    /**
+     * Allows to import the values of a document in a structure (non-existent fields will be ignored without causing an error)
+     * @param doc the original document
+     * @param raw the instance of the structure to complete
+     * @return the structure completed
+     */
+    public D fromDocument (final Document doc, final D raw) {
+        for (int ind = 0; ind < names.length; ind++) {
+            if (doc.containsKey(names[ind]))
+                set(raw, ind, convert(doc.get(names[ind]), fields[ind].getType()));
+        }
+        return raw;
+    }
+
+}
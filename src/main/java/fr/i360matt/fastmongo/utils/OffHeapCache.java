@@ -0,0 +1,382 @@
+package fr.i360matt.fastmongo.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a cache of serialized values stored outside the Java heap, in direct ByteBuffer slabs,
+ * so that a large number of entries doesn't weigh on the garbage collector.
+ *
+ * The entries are written one after the other in the slabs of a segment. When the slabs are full,
+ * the oldest slab is reused entirely: its entries are evicted (FIFO by slab, so the eviction costs nothing).
+ * Each segment has an open-addressing index (arrays of int/long, without object by entry) and its own lock.
+ * The values are copied on each read, they can be decoded freely.
+ *
+ * @author 360matt
+ */
+public class OffHeapCache {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MAX_SLAB_SIZE = 16 * 1024 * 1024;
+    private static final int MIN_SLAB_SIZE = 64 * 1024;
+    private static final long ALLOCATION_RETRY_DELAY = 10_000;
+    private static final int HEADER = 16;
+    // key length (int), value length (int), expiry (long)
+
+    private static final int EMPTY = 0;
+    private static final int REMOVED = 1;
+
+    private final class Segment {
+        private final ByteBuffer[] slabs;
+        private final int[] slabGenerations;
+        private final int[] slabEntries;
+        private int head;
+        private int position;
+
+        private int[] hashes = new int[1024];
+        private long[] locations = new long[1024];
+        private int[] generations = new int[1024];
+        private int size;
+        private int removed;
+
+        private Segment (final int slabCount) {
+            this.slabs = new ByteBuffer[slabCount];
+            this.slabGenerations = new int[slabCount];
+            this.slabEntries = new int[slabCount];
+        }
+
+        // _____________________________________________________________________________________________________________
+
+        private byte[] get (final byte[] key, final int hash) {
+            final int ind = find(key, hash);
+            if (ind < 0)
+                return null;
+
+            final int slab = (int) (locations[ind] >>> 32);
+            final int offset = (int) locations[ind];
+            final ByteBuffer buffer = slabs[slab];
+            final long expiry = buffer.getLong(offset + 8);
+            if (expiry != 0 && expiry <= System.currentTimeMillis()) {
+                remove(ind);
+                return null;
+            }
+
+            final byte[] res = new byte[buffer.getInt(offset + 4)];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(offset + HEADER + key.length);
+            view.get(res);
+            return res;
+        }
+
+        private void put (final byte[] key, final int hash, final byte[] value, final long expiry) {
+            final int found = find(key, hash);
+            if (found >= 0)
+                remove(found);
+
+            final int needed = HEADER + key.length + value.length;
+            if (needed > slabSize) {
+                rejected.increment();
+                return;
+                // too large for a slab, not cached
+            }
+            if ((slabs[head] == null || position + needed > slabSize) && !nextSlab()) {
+                rejected.increment();
+                return;
+                // the off-heap memory is exhausted, not cached: a miss rather than an error for the reader
+            }
+
+            final ByteBuffer buffer = slabs[head];
+            buffer.putInt(position, key.length);
+            buffer.putInt(position + 4, value.length);
+            buffer.putLong(position + 8, expiry);
+            final ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER);
+            view.put(key);
+            view.put(value);
+
+            insert(hash, ((long) head << 32) | position, slabGenerations[head]);
+            slabEntries[head]++;
+            position += needed;
+        }
+
+        private boolean remove (final byte[] key, final int hash) {
+            final int ind = find(key, hash);
+            if (ind < 0)
+                return false;
+            remove(ind);
+            return true;
+        }
+
+        private void clear () {
+            for (int slab = 0; slab < slabs.length; slab++) {
+                slabGenerations[slab]++;
+                slabEntries[slab] = 0;
+            }
+            Arrays.fill(hashes, EMPTY);
+            size = 0;
+            removed = 0;
+            position = 0;
+            // the slabs are kept, their previous entries are no longer reachable
+        }
+
+        // _____________________________________________________________________________________________________________
+
+        /**
+         * Uses the next slab, the entries which were in it are evicted
+         * @return false if the memory of the slab can't be reserved, it is tried again later
+         */
+        private boolean nextSlab () {
+            if (slabs[head] != null)
+                head = (head + 1) % slabs.length;
+            if (slabs[head] == null) {
+                if (System.currentTimeMillis() < allocationRetry)
+                    return false;
+                try {
+                    slabs[head] = ByteBuffer.allocateDirect(slabSize);
+                    // the memory is reserved only when it is needed
+                } catch (final OutOfMemoryError e) {
+                    allocationRetry = System.currentTimeMillis() + ALLOCATION_RETRY_DELAY;
+                    return false;
+                    // -XX:MaxDirectMemorySize reached: a failed allocation waits for a GC, it is not retried at each put
+                }
+            }
+
+            evictions.add(slabEntries[head]);
+            size -= slabEntries[head];
+            removed += slabEntries[head];
+            // the index entries of this slab become obsolete, they are skipped and cleaned lazily
+            slabGenerations[head]++;
+            slabEntries[head] = 0;
+            position = 0;
+            return true;
+        }
+
+        private int find (final byte[] key, final int hash) {
+            final int mask = hashes.length - 1;
+            for (int ind = hash & mask; ; ind = (ind + 1) & mask) {
+                final int candidate = hashes[ind];
+                if (candidate == EMPTY)
+                    return -1;
+                if (candidate == hash) {
+                    final int slab = (int) (locations[ind] >>> 32);
+                    if (generations[ind] != slabGenerations[slab]) {
+                        hashes[ind] = REMOVED;
+                        // obsolete: its slab was reused (already counted in removed)
+                    } else if (sameKey(slabs[slab], (int) locations[ind], key)) {
+                        return ind;
+                    }
+                }
+            }
+        }
+
+        private void remove (final int ind) {
+            final int slab = (int) (locations[ind] >>> 32);
+            hashes[ind] = REMOVED;
+            slabEntries[slab]--;
+            size--;
+            removed++;
+        }
+
+        private void insert (final int hash, final long location, final int generation) {
+            if ((size + removed + 1) * 4L > hashes.length * 3L)
+                rehash();
+
+            final int mask = hashes.length - 1;
+            int ind = hash & mask;
+            while (hashes[ind] != EMPTY && hashes[ind] != REMOVED)
+                ind = (ind + 1) & mask;
+            if (hashes[ind] == REMOVED)
+                removed--;
+
+            hashes[ind] = hash;
+            locations[ind] = location;
+            generations[ind] = generation;
+            size++;
+        }
+
+        /**
+         * Rebuilds the index without the removed and obsolete entries, larger if it is too full
+         */
+        private void rehash () {
+            final int[] oldHashes = hashes;
+            final long[] oldLocations = locations;
+            final int[] oldGenerations = generations;
+
+            final int capacity = (size * 2 > oldHashes.length / 2) ? oldHashes.length * 2 : oldHashes.length;
+            hashes = new int[capacity];
+            locations = new long[capacity];
+            generations = new int[capacity];
+            size = 0;
+            removed = 0;
+
+            final int mask = capacity - 1;
+            for (int old = 0; old < oldHashes.length; old++) {
+                final int hash = oldHashes[old];
+                if (hash == EMPTY || hash == REMOVED)
+                    continue;
+                if (oldGenerations[old] != slabGenerations[(int) (oldLocations[old] >>> 32)])
+                    continue;
+
+                int ind = hash & mask;
+                while (hashes[ind] != EMPTY)
+                    ind = (ind + 1) & mask;
+                hashes[ind] = hash;
+                locations[ind] = oldLocations[old];
+                generations[ind] = oldGenerations[old];
+                size++;
+            }
+        }
+    }
+
+    private static boolean sameKey (final ByteBuffer buffer, final int offset, final byte[] key) {
+        if (buffer.getInt(offset) != key.length)
+            return false;
+        for (int ind = 0; ind < key.length; ind++) {
+            if (buffer.get(offset + HEADER + ind) != key[ind])
+                return false;
+        }
+        return true;
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    public final long maxBytes;
+    public final long expiryInMillis;
+    public final int slabSize;
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile long allocationRetry;
+    // shared by the segments: each failed allocation blocks its caller until the GC of the JDK gives up
+
+    /**
+     * Allows to create a cache
+     * @param maxBytes the maximum size of the off-heap memory used by the values
+     * @param expiryInMillis the lifetime of an entry, 0 for no expiration
+     */
+    public OffHeapCache (final long maxBytes, final long expiryInMillis) {
+        this.maxBytes = maxBytes;
+        this.expiryInMillis = expiryInMillis;
+
+        final int count = Integer.highestOneBit((int) Math.max(1, Math.min(MAX_SEGMENTS, maxBytes / (4 * MIN_SLAB_SIZE))));
+        final long bytesBySegment = maxBytes / count;
+        this.slabSize = (int) Math.max(1, Math.min(MAX_SLAB_SIZE, Math.max(bytesBySegment / 4, Math.min(MIN_SLAB_SIZE, bytesBySegment / 2))));
+        // smaller than MIN_SLAB_SIZE for the small caches: the slabs never reserve more than maxBytes
+        final int slabCount = (int) Math.max(2, bytesBySegment / slabSize);
+        // at least two slabs: the eviction of a slab keeps the recent entries of the other ones
+
+        this.segments = new OffHeapCache.Segment[count];
+        for (int ind = 0; ind < count; ind++)
+            segments[ind] = new Segment(slabCount);
+    }
+
+    private static int hashOf (final String key) {
+        int hash = key.hashCode();
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        final int res = (hash ^ (hash >>> 16)) & 0x7fffffff;
+        // mixed: the ids are often sequential, their close hashes would form long runs in the linear probing
+        return (res <= REMOVED) ? res + 2 : res;
+    }
+
+    private Segment segmentOf (final int hash) {
+        return segments[(hash >>> 27) & (segments.length - 1)];
+        // the high bits: the low bits are used by the index of the segment
+    }
+
+    // _________________________________________________________________________________________________________________
+
+    /**
+     * Allows to retrieve a value
+     * @param key the key
+     * @return a copy of the value, null if it is not in the cache
+     */
+    public final byte[] get (final String key) {
+        final int hash = hashOf(key);
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        final Segment segment = segmentOf(hash);
+        final byte[] res;
+        synchronized (segment) {
+            res = segment.get(bytes, hash);
+        }
+        if (res != null)
+            hits.increment();
+        else
+            misses.increment();
+        return res;
+    }
+
+    /**
+     * Allows to add or replace a value, the oldest entries are evicted if the memory is full
+     * The value is not cached (counted in getRejected) if it is too large or if the off-heap memory can't be reserved
+     * @param key the key
+     * @param value the serialized value
+     */
+    public final void put (final String key, final byte[] value) {
+        final int hash = hashOf(key);
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        final long expiry = (expiryInMillis > 0) ? System.currentTimeMillis() + expiryInMillis : 0;
+        final Segment segment = segmentOf(hash);
+        synchronized (segment) {
+            segment.put(bytes, hash, value, expiry);
+        }
+    }
+
+    /**
+     * Allows to remove a value
+     * @param key the key
+     * @return true if the value was in the cache
+     */
+    public final boolean remove (final String key) {
+        final int hash = hashOf(key);
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        final Segment segment = segmentOf(hash);
+        synchronized (segment) {
+            return segment.remove(bytes, hash);
+        }
+    }
+
+    public final void clear () {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public final int size () {
+        int res = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                res += segment.size;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Allows to know the off-heap memory reserved by the slabs
+     * @return the number of bytes
+     */
+    public final long getAllocatedBytes () {
+        long res = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                for (final ByteBuffer slab : segment.slabs)
+                    res += (slab != null) ? slab.capacity() : 0;
+            }
+        }
+        return res;
+    }
+
+    public final long getHits () { return hits.sum(); }
+    public final long getMisses () { return misses.sum(); }
+    public final long getEvictions () { return evictions.sum(); }
+    public final long getRejected () { return rejected.sum(); }
+
+}
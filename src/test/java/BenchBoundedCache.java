@@ -0,0 +1,77 @@
+import fr.i360matt.fastmongo.utils.BoundedCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * Benchmark of BoundedCache against the previous ExpirableCache / ExpirableCacheList
+ * (90% reads, 10% writes, from several threads)
+ * @author 360matt
+ */
+@SuppressWarnings("deprecation")
+public class BenchBoundedCache {
+
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 2_000_000;
+    private static final int KEYS = 10_000;
+
+    public static void main (final String[] args) throws InterruptedException {
+        final fr.i360matt.fastmongo.utils.ExpirableCache<Integer, String> expirable = new fr.i360matt.fastmongo.utils.ExpirableCache<>(60_000);
+        final BoundedCache<Integer, String> bounded = new BoundedCache<>(KEYS, 60_000);
+        final BoundedCache<Integer, Boolean> boundedSet = new BoundedCache<>(KEYS, 60_000);
+
+        for (int round = 0; round < 3; round++) {
+            run("ExpirableCache  ", key -> {
+                if (ThreadLocalRandom.current().nextInt(10) == 0) expirable.put(key, "v");
+                else expirable.get(key);
+            });
+            run("BoundedCache    ", key -> {
+                if (ThreadLocalRandom.current().nextInt(10) == 0) bounded.put(key, "v");
+                else bounded.get(key);
+            });
+            run("BoundedCache set", key -> {
+                if (ThreadLocalRandom.current().nextInt(10) == 0) boundedSet.put(key, true);
+                else boundedSet.containsKey(key);
+            });
+            System.out.println();
+        }
+        expirable.quitMap();
+
+        final fr.i360matt.fastmongo.utils.ExpirableCacheList<Integer> list = new fr.i360matt.fastmongo.utils.ExpirableCacheList<>(60_000);
+        run("ExpirableCacheList (1 thread only, not thread-safe)", 1, key -> {
+            if (ThreadLocalRandom.current().nextInt(10) == 0) list.add(key);
+            else list.contains(key);
+        });
+        run("BoundedCache set   (1 thread)", 1, key -> {
+            if (ThreadLocalRandom.current().nextInt(10) == 0) boundedSet.put(key, true);
+            else boundedSet.containsKey(key);
+        });
+        list.quitMap();
+    }
+
+    private static void run (final String name, final IntConsumer operation) throws InterruptedException {
+        run(name, THREADS, operation);
+    }
+
+    private static void run (final String name, final int threadCount, final IntConsumer operation) throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>();
+        final long start = System.nanoTime();
+        for (int ind = 0; ind < threadCount; ind++) {
+            final Thread thread = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int op = 0; op < OPERATIONS; op++)
+                    operation.accept(random.nextInt(KEYS));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+
+        final long elapsed = System.nanoTime() - start;
+        System.out.printf("%-52s %8.1f ns/op%n", name, (double) elapsed / ((long) OPERATIONS * threadCount));
+    }
+
+}
@@ -0,0 +1,127 @@
+import com.mongodb.MongoClient;
+import com.mongodb.client.model.UpdateOptions;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Allocation benchmark of the command of an Element mutation (filter + update + options, then encoding to BSON),
+ * before and after the shared options / plain Document construction, and with the filter built as a RawBsonDocument.
+ * Each operation builds the filter of the element, like getObject(id).update(...): one element, one mutation.
+ * The bytes are measured by the allocation counter of the thread (com.sun.management.ThreadMXBean).
+ * @author 360matt
+ */
+public class BenchCommandAllocation {
+
+    private static final int WARMUP = 500_000;
+    private static final int ROUNDS = 2_000_000;
+
+    private static final CodecRegistry registry = MongoClient.getDefaultCodecRegistry();
+    private static final EncoderContext context = EncoderContext.builder().build();
+    private static final BasicOutputBuffer buffer = new BasicOutputBuffer(1024);
+
+    private static final UpdateOptions UPDATE = new UpdateOptions();
+    private static final BsonDocumentCodec FILTER_CODEC = new BsonDocumentCodec();
+
+    public static void main (final String[] args) {
+        final String id = "360matt";
+        long blackhole = 0;
+
+        for (int ind = 0; ind < WARMUP; ind++) {
+            blackhole += before(id, ind);
+            blackhole += raw(id, ind);
+            blackhole += after(id, ind);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long bytes = allocated();
+            long start = System.nanoTime();
+            for (int ind = 0; ind < ROUNDS; ind++)
+                blackhole += before(id, ind);
+            print("before (new filter, double-brace, new options)", start, bytes);
+
+            bytes = allocated();
+            start = System.nanoTime();
+            for (int ind = 0; ind < ROUNDS; ind++)
+                blackhole += raw(id, ind);
+            print("raw    (RawBsonDocument filter, shared options)", start, bytes);
+
+            bytes = allocated();
+            start = System.nanoTime();
+            for (int ind = 0; ind < ROUNDS; ind++)
+                blackhole += after(id, ind);
+            print("after  (BsonDocument filter, shared options)", start, bytes);
+            System.out.println();
+        }
+        System.out.println(blackhole);
+    }
+
+    private static int before (final String id, final int value) {
+        final Object[] values = { "coins", value, "level", 12 };
+        final Document filter = new Document("_id", id);
+        final Document toModify = new Document() {{
+            for (int ind = 0; ind < values.length; ind += 2)
+                append(String.valueOf(values[ind]), values[ind + 1]);
+        }};
+        final UpdateOptions options = new UpdateOptions().upsert(false);
+        return encode(filter, new Document("$set", toModify)) + (options.isUpsert() ? 1 : 0);
+    }
+
+    private static int raw (final String id, final int value) {
+        final RawBsonDocument filter = new RawBsonDocument(new BsonDocument("_id", new BsonString(id)), FILTER_CODEC);
+        return update(filter, value);
+        // the encoding of the filter allocates the output buffer of the writer
+    }
+
+    private static int after (final String id, final int value) {
+        final BsonDocument filter = new BsonDocument("_id", new BsonString(id));
+        return update(filter, value);
+    }
+
+    private static int update (final Bson filter, final int value) {
+        final Object[] values = { "coins", value, "level", 12 };
+        final Document toModify = new Document();
+        for (int ind = 0; ind < values.length; ind += 2)
+            toModify.append(String.valueOf(values[ind]), values[ind + 1]);
+        return encode(filter, new Document("$set", toModify)) + (UPDATE.isUpsert() ? 1 : 0);
+    }
+
+    private static int encode (final Bson filter, final Bson update) {
+        buffer.truncateToPosition(0);
+        final BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+        writer.writeStartDocument();
+        writer.writeName("q");
+        write(writer, filter.toBsonDocument(Document.class, registry));
+        writer.writeName("u");
+        write(writer, update.toBsonDocument(Document.class, registry));
+        writer.writeEndDocument();
+        // like the driver: each Bson is converted, then written by the codec of its class
+        return buffer.getPosition();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write (final BsonBinaryWriter writer, final BsonDocument document) {
+        ((Codec<BsonDocument>) registry.get(document.getClass())).encode(writer, document, context);
+        // RawBsonDocument: the bytes are copied, BsonDocumentWrapper: the wrapped Document is encoded
+    }
+
+    private static long allocated () {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void print (final String name, final long start, final long bytes) {
+        final long elapsed = System.nanoTime() - start;
+        System.out.printf("%-50s %8.1f ns/op %8.1f B/op%n", name, (double) elapsed / ROUNDS, (double) (allocated() - bytes) / ROUNDS);
+    }
+
+}
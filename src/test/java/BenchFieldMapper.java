@@ -0,0 +1,87 @@
+import fr.i360matt.fastmongo.utils.FieldMapper;
+import org.bson.Document;
+
+import java.lang.reflect.Field;
+
+/**
+ * Micro-benchmark comparing the reflection path (Class.getFields() + Field.get/set at each call)
+ * with the cached accessors of FieldMapper
+ * @author 360matt
+ */
+public class BenchFieldMapper {
+
+    public static class Player {
+        public String name = "Steve";
+        public int level = 12;
+        public long coins = 4_500L;
+        public double ratio = 1.25;
+        public boolean banned = false;
+        public String rank = "member";
+    }
+
+    private static final int WARMUP = 200_000;
+    private static final int ROUNDS = 2_000_000;
+
+    public static void main (final String[] args) throws Exception {
+        final Document doc = FieldMapper.of(Player.class).toDocument(new Player(), new Document());
+        long blackhole = 0;
+
+        for (int ind = 0; ind < WARMUP; ind++) {
+            blackhole += reflectionWrite(new Player()).size() + mapperWrite(new Player()).size();
+            blackhole += reflectionRead(doc).level + mapperRead(doc).level;
+        }
+
+        long start = System.nanoTime();
+        for (int ind = 0; ind < ROUNDS; ind++)
+            blackhole += reflectionWrite(new Player()).size();
+        print("reflection  Raw -> Document", start);
+
+        start = System.nanoTime();
+        for (int ind = 0; ind < ROUNDS; ind++)
+            blackhole += mapperWrite(new Player()).size();
+        print("FieldMapper Raw -> Document", start);
+
+        start = System.nanoTime();
+        for (int ind = 0; ind < ROUNDS; ind++)
+            blackhole += reflectionRead(doc).level;
+        print("reflection  Document -> Raw", start);
+
+        start = System.nanoTime();
+        for (int ind = 0; ind < ROUNDS; ind++)
+            blackhole += mapperRead(doc).level;
+        print("FieldMapper Document -> Raw", start);
+
+        System.out.println("(blackhole: " + blackhole + ")");
+    }
+
+    private static Document reflectionWrite (final Player raw) throws IllegalAccessException {
+        final Document res = new Document();
+        for (final Field field : raw.getClass().getFields())
+            res.append(field.getName(), field.get(raw));
+        return res;
+    }
+
+    private static Document mapperWrite (final Player raw) {
+        return FieldMapper.of(Player.class).toDocument(raw, new Document());
+    }
+
+    private static Player reflectionRead (final Document doc) throws IllegalAccessException {
+        final Player res = new Player();
+        for (final Field field : Player.class.getFields()) {
+            if (doc.containsKey(field.getName()))
+                field.set(res, doc.get(field.getName()));
+        }
+        return res;
+    }
+
+    private static Player mapperRead (final Document doc) {
+        final FieldMapper<Player> mapper = FieldMapper.of(Player.class);
+        return mapper.fromDocument(doc, mapper.newInstance());
+    }
+
+    private static void print (final String name, final long start) {
+        final long elapsed = System.nanoTime() - start;
+        System.out.printf("%-30s %8.1f ns/op%n", name, (double) elapsed / ROUNDS);
+    }
+
+}
@@ -0,0 +1,78 @@
+import fr.i360matt.fastmongo.utils.BoundedCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress test of BoundedCache: several threads read, write and remove at the same time,
+ * the size must never exceed the maximum and the values must stay consistent with their key
+ * @author 360matt
+ */
+public class TestBoundedCache {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 1_000_000;
+    private static final int MAX_SIZE = 5_000;
+    private static final int KEYS = 50_000;
+
+    public static void main (final String[] args) throws InterruptedException {
+        final BoundedCache<Integer, String> cache = new BoundedCache<>(MAX_SIZE, 50);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int ind = 0; ind < THREADS; ind++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int op = 0; op < OPERATIONS; op++) {
+                        final int key = random.nextInt(KEYS);
+                        final int action = random.nextInt(10);
+
+                        if (action < 6) {
+                            final String value = cache.get(key);
+                            if (value != null && !value.equals("v" + key))
+                                throw new IllegalStateException("Inconsistent value for " + key + ": " + value);
+                        } else if (action < 9) {
+                            cache.put(key, "v" + key);
+                        } else {
+                            cache.remove(key);
+                        }
+
+                        if (op % 10_000 == 0 && cache.size() > MAX_SIZE)
+                            throw new IllegalStateException("Size exceeded: " + cache.size());
+                    }
+                } catch (final Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (final Thread thread : threads)
+            thread.join();
+        final long elapsed = System.nanoTime() - begin;
+
+        if (failure.get() != null)
+            throw new AssertionError("Stress test failed", failure.get());
+        if (cache.size() > MAX_SIZE)
+            throw new AssertionError("Size exceeded: " + cache.size());
+
+        Thread.sleep(100);
+        cache.cleanUp();
+        if (cache.size() != 0)
+            throw new AssertionError("Expired entries remain: " + cache.size());
+
+        System.out.printf("OK: %d operations in %d ms (hits %d, misses %d, evictions %d)%n",
+                THREADS * OPERATIONS, elapsed / 1_000_000,
+                cache.getHits(), cache.getMisses(), cache.getEvictions());
+    }
+
+}
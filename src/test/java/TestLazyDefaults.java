@@ -0,0 +1,68 @@
+import com.github.fakemongo.Fongo;
+import fr.i360matt.fastmongo.CollectionManager;
+import fr.i360matt.fastmongo.MongoIntegration;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test of the lazy auto-insertion: a mutation of a field with a default value ($inc, $push, counters)
+ * must give the same document as the eager mode, where the defaults are inserted at the instantiation
+ * @author 360matt
+ */
+public class TestLazyDefaults {
+
+    public static class Player {
+        public int coins = 100;
+        public List<String> items = new ArrayList<>(Arrays.asList("sword"));
+        public String rank = "none";
+    }
+
+    public static void main (final String[] args) {
+        final Fongo fongo = new Fongo("lazy");
+        MongoIntegration.client = fongo.getMongo();
+        MongoIntegration.database = fongo.getDatabase("test");
+        MongoIntegration.setAvailable(true);
+
+        final CollectionManager eager = managerOf("eager", false);
+        final CollectionManager lazy = managerOf("lazy", true);
+        final CollectionManager buffered = managerOf("buffered", true);
+        buffered.writeBehind(1_000, 60_000);
+
+        for (final CollectionManager manager : Arrays.asList(eager, lazy, buffered)) {
+            manager.getObject("increment").increment("coins", 5);
+            manager.getObject("push").push("items", "shield");
+            manager.getObject("set").update("coins", 7);
+            manager.getObject("returning").returning().increment("coins", 5);
+            manager.getObject("counter");
+            // the element of the player exists before its counters: inserted in eager mode, nothing written in lazy mode
+            manager.counters(60_000);
+            manager.getCounters().increment("counter", "coins", 5);
+            manager.getCounters().flush();
+        }
+
+        for (final String id : Arrays.asList("increment", "push", "set", "returning", "counter")) {
+            final Document expected = eager.getObject(id).getDocument();
+            expected.remove("_id");
+            for (final CollectionManager manager : Arrays.asList(lazy, buffered)) {
+                final Document actual = manager.getObject(id).getDocument();
+                actual.remove("_id");
+                if (!expected.equals(actual))
+                    throw new AssertionError(id + ": " + manager.name + " " + actual.toJson() + " instead of " + expected.toJson());
+            }
+        }
+        if (!Integer.valueOf(105).equals(lazy.getObject("increment").getDocument().get("coins")))
+            throw new AssertionError("The increment must apply on the default value");
+
+        System.out.println("OK: the lazy auto-insertion gives the same documents as the eager mode");
+    }
+
+    private static CollectionManager managerOf (final String name, final boolean lazy) {
+        final CollectionManager res = new CollectionManager(name);
+        res.autoInsert(Player.class, lazy);
+        return res;
+    }
+
+}
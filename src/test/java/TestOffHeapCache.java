@@ -0,0 +1,93 @@
+import fr.i360matt.fastmongo.utils.OffHeapCache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress test of OffHeapCache: several threads read, write and remove at the same time,
+ * the values must stay consistent with their key, the memory must never exceed the maximum,
+ * and a removed value must not come back
+ * @author 360matt
+ */
+public class TestOffHeapCache {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 1_000_000;
+    private static final long MAX_BYTES = 8L * 1024 * 1024;
+    private static final int KEYS = 200_000;
+
+    public static void main (final String[] args) throws InterruptedException {
+        final OffHeapCache cache = new OffHeapCache(MAX_BYTES, 0);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int ind = 0; ind < THREADS; ind++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int op = 0; op < OPERATIONS; op++) {
+                        final String key = "players#" + random.nextInt(KEYS);
+                        final int action = random.nextInt(10);
+
+                        if (action < 6) {
+                            final byte[] value = cache.get(key);
+                            if (value != null && !valueOf(key).equals(new String(value, StandardCharsets.UTF_8)))
+                                throw new IllegalStateException("Inconsistent value for " + key);
+                        } else if (action < 9) {
+                            cache.put(key, valueOf(key).getBytes(StandardCharsets.UTF_8));
+                        } else {
+                            cache.remove(key);
+                        }
+                    }
+                } catch (final Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (final Thread thread : threads)
+            thread.join();
+        final long elapsed = System.nanoTime() - begin;
+
+        if (failure.get() != null)
+            throw new AssertionError("Stress test failed", failure.get());
+        if (cache.getAllocatedBytes() > MAX_BYTES)
+            throw new AssertionError("Memory exceeded: " + cache.getAllocatedBytes());
+
+        cache.put("removed", new byte[] { 1 });
+        cache.remove("removed");
+        if (cache.get("removed") != null)
+            throw new AssertionError("A removed value came back");
+
+        cache.put("big", new byte[cache.slabSize]);
+        if (cache.get("big") != null || cache.getRejected() != 1)
+            throw new AssertionError("A value larger than a slab must be rejected");
+
+        System.out.printf("OK: %d operations in %d ms (size %d, hits %d, misses %d, evictions %d, %d KB off-heap)%n",
+                THREADS * OPERATIONS, elapsed / 1_000_000, cache.size(),
+                cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.getAllocatedBytes() / 1024);
+
+        cache.clear();
+        if (cache.size() != 0 || cache.get("players#1") != null)
+            throw new AssertionError("Entries remain after clear()");
+    }
+
+    private static String valueOf (final String key) {
+        final StringBuilder res = new StringBuilder(key);
+        for (int ind = key.length() % 7; ind < 40; ind++)
+            res.append((char) ('a' + ind % 26));
+        return res.toString();
+        // variable lengths
+    }
+
+}
@@ -0,0 +1,68 @@
+import com.github.fakemongo.Fongo;
+import fr.i360matt.fastmongo.CollectionManager;
+import fr.i360matt.fastmongo.MongoIntegration;
+import fr.i360matt.fastmongo.Sort;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test of the keyset pagination of Sort with a nullable field of the ranking:
+ * the pages must return each document once, in the order of the ranking, through the null and missing values
+ * @author 360matt
+ */
+public class TestSortPagination {
+
+    public static void main (final String[] args) {
+        final Fongo fongo = new Fongo("pagination");
+        MongoIntegration.client = fongo.getMongo();
+        MongoIntegration.database = fongo.getDatabase("test");
+        MongoIntegration.setAvailable(true);
+
+        final CollectionManager manager = new CollectionManager("pagination");
+        for (int ind = 0; ind < 20; ind++) {
+            final Document doc = new Document();
+            if (ind % 3 == 0)
+                doc.put("score", null);
+            else if (ind % 3 == 1)
+                doc.put("score", ind % 7);
+            // ind % 3 == 2: no score
+            manager.getObject("player" + ind).setDocument(doc);
+        }
+
+        check(manager, true);
+        check(manager, false);
+        System.out.println("OK: the pages go through the null and missing values");
+    }
+
+    private static void check (final CollectionManager manager, final boolean ascending) {
+        final Sort expected = new Sort(manager);
+        final Sort ranking = new Sort(manager);
+        if (ascending) {
+            expected.ascending("score", "_id");
+            ranking.ascending("score");
+        } else {
+            expected.descending("score").ascending("_id");
+            ranking.descending("score");
+        }
+
+        final List<Object> all = new ArrayList<>();
+        for (final Document doc : expected.getDocuments())
+            all.add(doc.get("_id"));
+
+        final List<Object> paged = new ArrayList<>();
+        Sort.Page<Document> page = ranking.page(Document.class, 3, null);
+        while (true) {
+            for (final Document doc : page.items)
+                paged.add(doc.get("_id"));
+            if (!page.hasNext())
+                break;
+            page = ranking.page(Document.class, 3, page.next);
+        }
+
+        if (!all.equals(paged))
+            throw new AssertionError((ascending ? "ascending" : "descending") + ": " + paged + " instead of " + all);
+    }
+
+}